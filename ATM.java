@@ -28,6 +28,37 @@ import java.util.*;
 
 public class ATM {
     public static final String CSV_DIRECTORY = "data.csv";
+    // run with -Datm.journal=true to append changes to a journal instead of
+    // rewriting data.csv after every change
+    public static final boolean JOURNAL = Boolean.getBoolean("atm.journal");
+    // run with -Datm.metrics.dump=<seconds> to print the operation counters
+    // and latencies every few seconds (they are always available through JMX)
+    public static final long METRICS_DUMP_SECONDS = Long.getLong("atm.metrics.dump", 0);
+    // run with -Datm.watch=true to read data.csv again whenever another
+    // program changes it
+    public static final boolean WATCH = Boolean.getBoolean("atm.watch");
+    // run with -Datm.writeBehind=<milliseconds> to save changes in the
+    // background, collecting them for that long, and add
+    // -Datm.writeBehind.wait=true to still wait for the save before answering
+    public static final long WRITE_BEHIND_MILLIS = Long.getLong("atm.writeBehind", 0);
+    public static final boolean WAIT_FOR_FLUSH = Boolean.getBoolean("atm.writeBehind.wait");
+    // run with -Datm.shards=<n> to keep the users in n files (data-0.csv, ...)
+    // split by id range, or by hash with -Datm.shards.split=HASH
+    public static final int SHARDS = Integer.getInteger("atm.shards", 0);
+    public static final String SHARD_SPLIT = System.getProperty("atm.shards.split", "RANGE");
+    // run with -Datm.binary=true to keep the users in data.bin (see
+    // BinaryCSVParser), so saving a change only rewrites that user's record.
+    // Not used together with atm.shards
+    public static final boolean BINARY = Boolean.getBoolean("atm.binary");
+    // run with -Datm.aggregates=true to keep running totals of the accounts
+    // from the start (see CSVParser.aggregates())
+    public static final boolean AGGREGATES = Boolean.getBoolean("atm.aggregates");
+    // run with -Datm.nameIndex=true to be able to look users up by name
+    // (see CSVParser.nameIndex())
+    public static final boolean NAME_INDEX = Boolean.getBoolean("atm.nameIndex");
+    // run with -Datm.ledger=<directory> to keep a history of every balance
+    // change in that directory (see Ledger)
+    public static final String LEDGER_DIRECTORY = System.getProperty("atm.ledger");
 
     /**
      * Validate user login. Will throw corresponding error if user id is not found
@@ -37,79 +68,59 @@ public class ATM {
      * @throws UserError will throw an error if the pin or user id is incorrect
      */
     public static boolean validateLogin(int userID, String pin) throws UserError {
-        // create the return object
-        boolean booleanValue = false;
-        // the correct pin file
-        String pinFile;
-        // try to look for ID in data.csv
-        try{
-            // create a new CSVParser object
-            CSVParser parser = new CSVParser(CSV_DIRECTORY);
-            // grab pin from file
-            pinFile = parser.getLine(userID).getPin();
-
-            // verify the pin
-            if (!Objects.equals(pin, pinFile)){
-                // the pin was invalid, return false
-                return false;
-            } else{
-                booleanValue = true;
-            }
-        } catch(IOException e){
-            // catch the IOException & assume the error was due to
-            // an invalid ID
+        // the service throws INVALID_ID if the user does not exist
+        return service().validateLogin(userID, pin);
+    }
 
-            // throw the corresponding error
-            throw new UserError("User ID not found", UserError.ErrorType.INVALID_ID);
-        }
-        // return the return object
-        return booleanValue;
+    /**
+     * same as createUser(Scanner, PrintStream), using standard in/out
+     */
+    public static void createUser() throws UserError {
+        createUser(new Scanner(System.in), System.out);
     }
 
     /**
      * Create a new user. the method will ask user for all required information
      * via standard in/out. The information required is as follows: <br>
-     * - User ID (6 digit unsigned integer, cannot be duplicate in database) <br>
+     * - User ID (6 digit unsigned integer, cannot be duplicate in database,
+     *   left empty to get a free one) <br>
      * - PIN (4 digit unsigned integer) <br>
      * - First name (string) <br>
      * - Last name (string) <br>
+     * @param sc scanner to read the answers from
+     * @param out where to print the questions and messages
      */
-    public static void createUser() throws UserError {
+    public static void createUser(Scanner sc, PrintStream out) throws UserError {
         // Initialize objects
-        Scanner sc = new Scanner(System.in);
+        ATMService service = service();
         String fname, lname;
         String userID = "", pin = "";
         boolean validInput = false;
 
         // ask for user ID, if invalid, keep asking
         do {
-            System.out.print("Enter a 6 digit positive number as your user ID (must be unique): ");
+            out.print("Enter a 6 digit positive number as your user ID (must be unique), or press enter to get one: ");
             try {
-                userID = sc.nextLine();
+                userID = sc.nextLine().trim();
 
                 // validate user ID
-                if (Integer.parseInt(userID) <= 0) {
+                if (userID.isEmpty()) {
+                    // an id is picked when the user is created
+                    validInput = true;
+                } else if (Integer.parseInt(userID) <= 0) {
                     // the user id was not a positive number
-                    System.out.println("Please enter a positive number.");
+                    out.println("Please enter a positive number.");
                 } else if (userID.length() != 6) {
                     // the user id was not 6 digits
-                    System.out.println("Please enter a 6-digit number.");
+                    out.println("Please enter a 6-digit number.");
+                } else if (service.exists(Integer.parseInt(userID))) {
+                    // the user ID is not unique
+                    out.println("User ID already exists.");
                 } else {
-                    // check if the user ID is unique
-                    boolean isUnique = true;
-                    try {
-                        CSVParser parser = new CSVParser(CSV_DIRECTORY);
-                        for (Line line : parser.lines) {
-                            if (line.getId().equals(userID)) {
-                                // the user ID is not unique
-                                System.out.println("User ID already exists.");
-                            }
-                        }
-                    } catch (IOException ignored) {}
-                    validInput = isUnique;
+                    validInput = true;
                 }
             } catch (NumberFormatException e) {
-                System.out.println("Please enter a number.");
+                out.println("Please enter a number.");
             }
         } while (!validInput);
 
@@ -117,16 +128,16 @@ public class ATM {
         // ask for PIN, if invalid, keep asking
         validInput = false;
         do {
-            System.out.print("Enter a 4 digit positive number as your pin: ");
+            out.print("Enter a 4 digit positive number as your pin: ");
             try {
                 pin = sc.nextLine();
                 // validate pin
                 if (Integer.parseInt(pin) <= 0) {
                     // the pin was not a positive number
-                    System.out.println("Please enter a positive number.");
+                    out.println("Please enter a positive number.");
                 } else if (pin.length() != 4) {
                     // the pin was not 4 digits
-                    System.out.println("Please enter a 4-digit number.");
+                    out.println("Please enter a 4-digit number.");
                 } else {
                     validInput = true;
                 }
@@ -142,32 +153,29 @@ public class ATM {
 
         // ask for first and last name
         // and convert to uppercase
-        System.out.print("Enter your first name: ");
+        out.print("Enter your first name: ");
         fname = sc.nextLine().toUpperCase();
-        System.out.print("Enter your last name: ");
+        out.print("Enter your last name: ");
         lname = sc.nextLine().toUpperCase();
 
-        // try to write data to file under a new entry
-        // with all accounts closed by default
-        try {
-            // create a new CSVParser object using the CSV_DIRECTORY constant
-            CSVParser parser = new CSVParser(CSV_DIRECTORY);
-
-            // add a new line (user) to the CSVParser object
-            // the accounts are defaulted to closed
-            parser.addLine(new Line(userID, fname, lname, pin));
+        // add the user with all accounts closed by default
+        if (userID.isEmpty()) {
+            int newID = service.createUser(fname, lname, pin);
+            out.println("Your user ID is " + newID + ".");
+        } else {
+            service.createUser(Integer.parseInt(userID), fname, lname, pin);
+        }
 
-            // make sure to write the updated data to file
-            parser.write();
+        // confirm with user the creation of the user
+        out.println("The user was successfully created.");
+    }
 
-            // confirm with user the creation of the user
-            System.out.println("The user was successfully created.");
-        } catch (IOException e) {
-            // catch the IOException
-            // not sure what the exception is
-            // so just make it generic
-            throw new UserError("An unexpected error occured", UserError.ErrorType.GENERIC);
-        }
+    /**
+     * same as createAccount(int, Scanner, PrintStream), using standard in/out
+     * @param userID the user id number (6 digit unsigned integer)
+     */
+    public static void createAccount(int userID) throws UserError {
+        createAccount(userID, new Scanner(System.in), System.out);
     }
 
     /**
@@ -176,267 +184,160 @@ public class ATM {
      * other account if they only have one. The method will print an error message
      * if the user has both accounts.
      * @param userID the user id number (6 digit unsigned integer)
+     * @param sc scanner to read the answers from
+     * @param out where to print the questions and messages
      */
-    public static void createAccount(int userID) throws UserError {
-        try {
-            // initialize objects
-            CSVParser parser = new CSVParser(CSV_DIRECTORY);
-            Scanner sc = new Scanner (System.in);
-            boolean hasChecking = parser.getLine(userID).isChecking();
-            boolean hasSavings = parser.getLine(userID).isSavings();
-            Line.AccountType accountToOpen;
-
-            // check which accounts the user has open
-            if (hasChecking && hasSavings) {
-                // can't do anything if the user has both accounts open
-                System.out.println("You already have both accounts.");
-            } else if (hasChecking) {
-                // open a savings account and set balance to 0
-                parser.getLine(userID).setSavings(true);
-                parser.getLine(userID).setValueOfSavings(0);
-
-                // print confirmation message
-                System.out.println("You have opened a savings account (your balance is $0).");
-
-                // save changes to file
-                parser.write();
-            } else if (hasSavings) {
-                // open a checking account and set balance to 0
-                parser.getLine(userID).setChecking(true);
-                parser.getLine(userID).setValueOfChecking(0);
-
-                // print confirmation message
-                System.out.println("You have opened a checking account (your balance is $0).");
-
-                // save changes to file
-                parser.write();
-            } else {
-                // ask user which account to open
-                System.out.print("Which kind of account do you want to open, c for checking, and s for savings: ");
-                accountToOpen = Objects.equals(sc.nextLine(), "c") ? Line.AccountType.CHECKING : Line.AccountType.SAVINGS;
-
-                if (accountToOpen == Line.AccountType.CHECKING) {
-                    // open a checking account
-                    parser.getLine(userID).setChecking(true);
-                    parser.getLine(userID).setValueOfChecking(0);
-
-                    // print confirmation message
-                    System.out.println("You have opened a checking account (your balance is $0).");
-                } else {
-                    // open a savings account
-                    parser.getLine(userID).setSavings(true);
-                    parser.getLine(userID).setValueOfSavings(0);
-
-                    // print confirmation message
-                    System.out.println("You have opened a savings account (your balance is $0).");
-                }
+    public static void createAccount(int userID, Scanner sc, PrintStream out) throws UserError {
+        // initialize objects
+        ATMService service = service();
+        boolean hasChecking = service.hasAccount(userID, Line.AccountType.CHECKING);
+        boolean hasSavings = service.hasAccount(userID, Line.AccountType.SAVINGS);
+        Line.AccountType accountToOpen = Line.AccountType.CHECKING;
+
+        // check which accounts the user has open
+        if (hasChecking && hasSavings) {
+            // can't do anything if the user has both accounts open
+            out.println("You already have both accounts.");
+            return;
+        } else if (!hasChecking && !hasSavings) {
+            // ask user which account to open
+            out.print("Which kind of account do you want to open, c for checking, and s for savings: ");
+            accountToOpen = Objects.equals(sc.nextLine(), "c") ? Line.AccountType.CHECKING : Line.AccountType.SAVINGS;
+        }
 
-                // save changes to file
-                parser.write();
+        // open the other account if one is open already, otherwise the one
+        // the user picked, with a balance of 0 and save the change
+        try {
+            accountToOpen = service.openNextAccount(userID, accountToOpen);
+        } catch (UserError e) {
+            if (e.errorType != UserError.ErrorType.ACCOUNT_OPEN) {
+                throw e;
             }
+            // another session opened the account in the meantime
+            out.println("You already have both accounts.");
+            return;
+        }
 
-        } catch (IOException e) {
-            // catch the IOException
-            // not sure what the exception is
-            // so just make it generic
-            throw new UserError("An unexpected error occured", UserError.ErrorType.GENERIC);
+        // print confirmation message
+        if (accountToOpen == Line.AccountType.CHECKING) {
+            out.println("You have opened a checking account (your balance is $0).");
+        } else {
+            out.println("You have opened a savings account (your balance is $0).");
         }
     }
 
+    /**
+     * same as closeAccount(int, Scanner, PrintStream), using standard in/out
+     * @param userID the user id number (6 digit unsigned integer)
+     */
+    public static void closeAccount(int userID) throws UserError {
+        closeAccount(userID, new Scanner(System.in), System.out);
+    }
+
     /**
      * Close an account for the user. The method will ask the user which account
      * they want to close if they have both accounts, and will automatically close
      * the other account if they only have one. The method will print an error message
      * if the user has no accounts.
      * @param userID the user id number (6 digit unsigned integer)
+     * @param sc scanner to read the answers from
+     * @param out where to print the questions and messages
      */
-    public static void closeAccount(int userID) throws UserError {
-        try {
-            // initialize objects
-            CSVParser parser = new CSVParser(CSV_DIRECTORY);
-            Scanner sc = new Scanner (System.in);
-            boolean hasChecking = parser.getLine(userID).isChecking();
-            boolean hasSavings = parser.getLine(userID).isSavings();
-            Line.AccountType accountType;
-
-            // check which accounts the user has open
-            if ((!hasChecking) && !hasSavings) {
-                // can't do anything if the user has no accounts open
-                System.out.println("You do not have any accounts open.");
-            } else if (hasChecking && !hasSavings) {
-                // close checking account
-                parser.getLine(userID).setChecking(false);
-                parser.getLine(userID).setValueOfChecking(-1);
-
-                // print confirmation message
-                System.out.println("You have closed your checking account.");
-
-                // save changes to file
-                parser.write();
-            } else if (hasSavings && !hasChecking) {
-                // close savings account
-                parser.getLine(userID).setSavings(false);
-                parser.getLine(userID).setValueOfSavings(-1);
-
-                // print confirmation message
-                System.out.println("You have closed your savings account.");
-
-                // save changes to file
-                parser.write();
-            } else {
-                // ask which account to close
-                System.out.print("Do you want to close your checking or savings account (c for checking, s for savings)? ");
-                accountType = Objects.equals(sc.nextLine(), "c") ? Line.AccountType.CHECKING : Line.AccountType.SAVINGS;
-
-                // close the corresponding account
-                if (accountType == Line.AccountType.CHECKING) {
-                    // close the checking account
-                    parser.getLine(userID).setChecking(false);
-                    parser.getLine(userID).setValueOfChecking(-1);
-
-                    // print confirmation message
-                    System.out.println("You have closed your checking account.");
-                } else {
-                    // close the savings account
-                    parser.getLine(userID).setSavings(false);
-                    parser.getLine(userID).setValueOfSavings(-1);
-
-                    // print confirmation message
-                    System.out.println("You have closed your savings account");
-                }
+    public static void closeAccount(int userID, Scanner sc, PrintStream out) throws UserError {
+        // initialize objects
+        ATMService service = service();
+        boolean hasChecking = service.hasAccount(userID, Line.AccountType.CHECKING);
+        boolean hasSavings = service.hasAccount(userID, Line.AccountType.SAVINGS);
+        Line.AccountType accountType = Line.AccountType.CHECKING;
+
+        // check which accounts the user has open
+        if ((!hasChecking) && !hasSavings) {
+            // can't do anything if the user has no accounts open
+            out.println("You do not have any accounts open.");
+            return;
+        } else if (hasChecking && hasSavings) {
+            // ask which account to close
+            out.print("Do you want to close your checking or savings account (c for checking, s for savings)? ");
+            accountType = Objects.equals(sc.nextLine(), "c") ? Line.AccountType.CHECKING : Line.AccountType.SAVINGS;
+        }
 
-                // save changes to file
-                parser.write();
+        // close the only open account, or the one the user picked,
+        // and save the change
+        try {
+            accountType = service.closeNextAccount(userID, accountType);
+        } catch (UserError e) {
+            if (e.errorType != UserError.ErrorType.NO_ACCOUNT) {
+                throw e;
             }
+            // another session closed the account in the meantime
+            out.println("You do not have any accounts open.");
+            return;
+        }
 
-        } catch (IOException e) {
-            // catch the IOException
-            // not sure what the exception is
-            // so just make it generic
-            throw new UserError("An unexpected error occured", UserError.ErrorType.GENERIC);
+        // print confirmation message
+        if (accountType == Line.AccountType.CHECKING) {
+            out.println("You have closed your checking account.");
+        } else {
+            out.println("You have closed your savings account.");
         }
     }
 
+    /**
+     * same as deposit(int, Scanner, PrintStream), using standard in/out
+     * @param userID the user id number (6 digit unsigned integer)
+     */
+    public static void deposit(int userID) throws UserError {
+        deposit(userID, new Scanner(System.in), System.out);
+    }
+
     /**
      * Deposit money into an account. The method will ask the user which account
      * they want to deposit to if they have both accounts, and will automatically
      * deposit to the other account if they only have one. The method will print an
      * error message if the user has no accounts.
      * @param userID the user id number (6 digit unsigned integer)
+     * @param sc scanner to read the answers from
+     * @param out where to print the questions and messages
      */
-    public static void deposit(int userID) throws UserError {
+    public static void deposit(int userID, Scanner sc, PrintStream out) throws UserError {
         // initialize objects
-        Scanner sc = new Scanner(System.in);
-        int answered = 0; // flag to track if the user entered a valid input
-        // initialize account type to prevent problems
-        Line.AccountType accountType = Line.AccountType.CHECKING; // account type
-        String newAccount; // whether the user wants to make a new account
-        int accounts = 0; // number of accounts
-        double depositAmount; // amount to deposit
-        double originalBalance = 0; // original balance
-        boolean accountChecking; // whether the user has a checking account
-        boolean accountSavings; // whether the user has a savings account
-
-        // try to do the shenanigans
-        try {
-            // create a new CSVParser object
-            CSVParser parser = new CSVParser(CSV_DIRECTORY);
-
-            // check how many accounts the user has
-            accountChecking = parser.getLine(userID).isChecking();
-            accountSavings = parser.getLine(userID).isSavings();
-            if (accountChecking){
-                accounts++;
-            }
-            if (accountSavings){
-                accounts++;
-            }
-            // switch case the account stuff
-            switch(accounts){
-                // if they have no accounts print and error and ask for if they want to make one
-                case 0:
-                    System.out.println("Error, you have no accounts!");
-                    while(answered == 0) {
-                        // prompts user to ask if they want a new account
-                        System.out.print("Do you want to make an account?(y/n) ");
-                        newAccount = sc.nextLine();
-                        // checks whether they do want a new account
-                        if (newAccount.equals("y")) {
-                            // create a new account via createAccount()
-                            createAccount(userID);
-                            answered++;
-                        }
-                        else if (newAccount.equals("n")){
-                            answered++;
-                        }
-                        else{
-                            // the input was not valid
-                            System.out.println("Please enter a valid input\n");
-                        }
-                    }
-                    break;
+        ATMService service = service();
+        long depositAmount; // amount to deposit (cents)
+        long newBalance; // balance after the deposit (cents)
+
+        // ask which account to use, stop if the user has none
+        Line.AccountType accountType = chooseAccount(userID, sc, out, "Which account do you want to deposit to (c for checking, s for savings):");
+        if (accountType == null) {
+            return;
+        }
 
-                // if they have one account it checks which one
-                case 1:
-                    if (accountChecking){
-                        accountType = Line.AccountType.CHECKING;
-                        originalBalance = parser.getLine(userID).valueOfChecking();
-                    }
-                    else {
-                        accountType = Line.AccountType.SAVINGS;
-                        originalBalance = parser.getLine(userID).valueOfSavings();
-                    }
-                    break;
-
-                // if they have 2 we want to know which account they want to deposit to
-                case 2:
-                    while(answered == 0) {
-                        // prompts user which account they want to deposit too
-                        System.out.print("Which account do you want to deposit to (c for checking, s for savings):");
-                        accountType = Objects.equals(sc.nextLine(), "c") ? Line.AccountType.CHECKING : Line.AccountType.SAVINGS;
-                        if (accountType == Line.AccountType.SAVINGS) {
-                            originalBalance = parser.getLine(userID).valueOfSavings();
-                            answered++;
-                        } else {
-                            originalBalance = parser.getLine(userID).valueOfChecking();
-                            answered++;
-                        }
-                    }
-                    break;
-                default:
-                    throw new IllegalStateException("Unexpected value: " + accounts);
-            }
-            answered = 0;
-            while(answered == 0) {
-                // asks the user how much they want to deposit
-                System.out.print("Deposit: $");
-                depositAmount = sc.nextDouble();
-                if (depositAmount > 0.00) {
-                    // for each account type:
-                    // add the deposit amount to the original balance
-                    // set the new balance to the new value
-                    // print the new balance
-                    if (accountType == Line.AccountType.SAVINGS){
-                        parser.getLine(userID).setValueOfSavings(round(originalBalance+depositAmount));
-                        parser.write();
-                        System.out.printf("Your savings accounts balance is now $%.2f\n", (parser.getLine(userID).valueOfSavings()));//(originalBalance+depositAmount));
-                    } else {
-                        parser.getLine(userID).setValueOfChecking(round(originalBalance+depositAmount));
-                        parser.write();
-                        System.out.printf("Your checking accounts balance is now $%.2f\n", (parser.getLine(userID).valueOfChecking()));//(originalBalance+depositAmount));
-                    }
-                    answered++;
+        for (;;) {
+            // asks the user how much they want to deposit
+            out.print("Deposit: $");
+            depositAmount = readCents(sc, out);
+            if (depositAmount > 0) {
+                // add the deposit amount to the balance and save it
+                newBalance = service.deposit(userID, accountType, depositAmount);
+
+                // print the new balance
+                if (accountType == Line.AccountType.SAVINGS) {
+                    out.println("Your savings accounts balance is now $" + Money.format(newBalance));
+                } else {
+                    out.println("Your checking accounts balance is now $" + Money.format(newBalance));
                 }
+                return;
             }
-
-        } catch(IOException e){
-            // catch the IOException
-            // not sure what the exception is
-            // so just make it generic
-            throw new UserError("An unexpected error occured", UserError.ErrorType.GENERIC);
         }
     }
 
+    /**
+     * same as withdraw(int, Scanner, PrintStream), using standard in/out
+     * @param userID the user id number (6 digit unsigned integer)
+     */
+    public static void withdraw(int userID) throws UserError {
+        withdraw(userID, new Scanner(System.in), System.out);
+    }
+
     /**
      * Withdraw money from an account. The method will ask the user which account
      * they want to withdraw from if they have both accounts, and will automatically
@@ -444,141 +345,71 @@ public class ATM {
      * error message if the user has no accounts or if they try to withdraw more money
      * than they have.
      * @param userID the user id number (6 digit unsigned integer)
+     * @param sc scanner to read the answers from
+     * @param out where to print the questions and messages
      */
-    public static void withdraw(int userID) throws UserError{
+    public static void withdraw(int userID, Scanner sc, PrintStream out) throws UserError {
         // initialize objects
-        Scanner sc = new Scanner(System.in);
-        int answered = 0; // flag to track if the user entered a valid input
-        // initialize account type to prevent problems
-        Line.AccountType accountType = Line.AccountType.CHECKING; // account type
-        String newAccount; // whether the user wants to make a new account
-        int accounts = 0; // number of accounts
-        double withdrawAmount; // amount to withdraw
-        double originalBalance = 0; // original balance
-        boolean accountChecking; // whether the user has a checking account
-        boolean accountSavings; // whether the user has a savings account
-
-        // try and do the shenanigans
-        try {
-            // create a new CSVParser object
-            CSVParser parser = new CSVParser(CSV_DIRECTORY);
-
-            // check how many accounts the user has
-            accountChecking = parser.getLine(userID).isChecking();
-            accountSavings = parser.getLine(userID).isSavings();
-            if (accountChecking){
-                accounts++;
-            }
-            if (accountSavings){
-                accounts++;
-            }
-            // switch case for what to do for each amount of accounts
-            switch(accounts){
-                // if they have no accounts print and error and ask for if they want to make one
-                case 0:
-                    System.out.println("Error, you have no accounts!");
-                    while(answered == 0) {
-                        // prompts user to ask if they want a new account
-                        System.out.print("Do you want to make an account?(y/n) ");
-                        newAccount = sc.nextLine();
-                        // checks whether they do want a new account
-                        if (newAccount.equals("y")) {
-                            createAccount(userID);
-                            answered++;
-                        }
-                        else if (newAccount.equals("n")){
-                            answered++;
-                        }
-                        else{
-                            // the input wasn't valid
-                            System.out.println("Please enter a valid input\n");
-                        }
-                    }
-                    break;
+        ATMService service = service();
+        long withdrawAmount; // amount to withdraw (cents)
+        long newBalance; // balance after the withdrawal (cents)
+
+        // ask which account to use, stop if the user has none
+        Line.AccountType accountType = chooseAccount(userID, sc, out, "Which account do you want to withdraw from:");
+        if (accountType == null) {
+            return;
+        }
 
-                // if they have one account it checks which one
-                case 1:
-                    if (accountChecking){
-                        accountType = Line.AccountType.CHECKING;
-                        originalBalance = parser.getLine(userID).valueOfChecking();
-                    }
-                    else {
-                        accountType = Line.AccountType.SAVINGS;
-                        originalBalance = parser.getLine(userID).valueOfSavings();
+        for (;;) {
+            // prompts the user for the amount they want to withdraw
+            out.print("Withdraw: $");
+            withdrawAmount = readCents(sc, out);
+            if (withdrawAmount > 0) {
+                try {
+                    // take the amount out of the balance and save it
+                    newBalance = service.withdraw(userID, accountType, withdrawAmount);
+                } catch (UserError e) {
+                    if (e.errorType != UserError.ErrorType.INSUFFICIENT_FUNDS) {
+                        throw e;
                     }
-                    break;
-
-                // if they have 2 we want to know which account they want to deposit to
-                case 2:
-                    while(answered == 0) {
-                        // prompts user which account they want to deposit too
-                        System.out.print("Which account do you want to withdraw from:");
-                        accountType = Objects.equals(sc.nextLine(), "c") ? Line.AccountType.CHECKING : Line.AccountType.SAVINGS;
-                        if (accountType == Line.AccountType.SAVINGS) {
-                            originalBalance = parser.getLine(userID).valueOfSavings();
-                            answered++;
-                        } else {
-                            originalBalance = parser.getLine(userID).valueOfChecking();
-                            answered++;
-                        }
-                    }
-                    break;
+                    // not enough money, ask again
+                    out.println("Error, cannot withdraw that much.");
+                    continue;
+                }
 
-            }
-            answered = 0;
-            while(answered == 0) {
-                // prompts the user for the amount they want to withdraw
-                System.out.print("Withdraw: $");
-                withdrawAmount = sc.nextDouble();
-                if (withdrawAmount > 0.00) {
-                    if (accountType == Line.AccountType.SAVINGS){
-                        if (originalBalance > withdrawAmount) {
-                            parser.getLine(userID).setValueOfSavings((originalBalance - withdrawAmount));
-                            System.out.printf("Your savings accounts balance is now $%.2f", (originalBalance - withdrawAmount));
-                        }
-                        else{
-                            System.out.println("Error, cannot withdraw that much.");
-                            answered--;
-                        }
-                    } else {
-                        if (originalBalance > withdrawAmount) {
-                            parser.getLine(userID).setValueOfChecking((originalBalance - withdrawAmount));
-                            System.out.printf("Your checking accounts balance is now $%.2f", (originalBalance - withdrawAmount));
-                        }
-                        else{
-                            System.out.println("Error, cannot withdraw that much.");
-                            answered--;
-                        }
-                    }
-                    answered++;
+                // print the new balance
+                if (accountType == Line.AccountType.SAVINGS) {
+                    out.println("Your savings accounts balance is now $" + Money.format(newBalance));
+                } else {
+                    out.println("Your checking accounts balance is now $" + Money.format(newBalance));
                 }
+                return;
             }
-
-        }catch(IOException e){
-            // the id was not found
-            throw new UserError("User ID not found", UserError.ErrorType.INVALID_ID);
         }
     }
 
     public static void changePIN(int userID) throws UserError {
+        changePIN(userID, new Scanner(System.in), System.out);
+    }
+
+    public static void changePIN(int userID, Scanner sc, PrintStream out) throws UserError {
         // initialize objects
-        Scanner sc = new Scanner(System.in);
         String newPIN;
         String newPIN2;
         boolean validInput = false;
 
         // ask for new PIN, if invalid, keep asking
         do {
-            System.out.println("Enter a 4 digit positive number as your new pin: ");
+            out.println("Enter a 4 digit positive number as your new pin: ");
             try {
                 newPIN = sc.nextLine();
                 // validate pin
                 if (Integer.parseInt(newPIN) <= 0) {
                     // the pin was not a positive number
-                    System.out.println("Please enter a positive number.");
+                    out.println("Please enter a positive number.");
                 } else if (newPIN.length() != 4) {
                     // the pin was not 4 digits
-                    System.out.println("Please enter a 4-digit number.");
+                    out.println("Please enter a 4-digit number.");
                 } else {
                     validInput = true;
                 }
@@ -591,51 +422,17 @@ public class ATM {
             }
         } while (!validInput);
 
-        // ask for new PIN again, if invalid, keep asking
-//        do {
-            System.out.println("Enter your new pin again: ");
-            try {
-                newPIN2 = sc.nextLine();
-                // validate pin
-                if (Integer.parseInt(newPIN2) <= 0) {
-                    // the pin was not a positive number
-                    System.out.println("Please enter a positive number.");
-                } else if (newPIN2.length() != 4) {
-                    // the pin was not 4 digits
-                    System.out.println("Please enter a 4-digit number.");
-                } else {
-                    validInput = true;
-                }
-            } catch (NumberFormatException e) {
-                // catch the NumberFormatException & assume the error was due to
-                // an invalid PIN
-
-                // throw the corresponding error
-                throw new UserError("Invalid PIN", UserError.ErrorType.INVALID_PIN);
-            }
-//        } while (!validInput);
+        // ask for new PIN again
+        out.println("Enter your new pin again: ");
+        newPIN2 = sc.nextLine();
 
         // check if the two PINs are the same
         if (newPIN.equals(newPIN2)) {
-            // the two PINs are the same, change the PIN
-            try {
-                // create a new CSVParser object using the CSV_DIRECTORY constant
-                CSVParser parser = new CSVParser(CSV_DIRECTORY);
-
-                // change the PIN
-                parser.getLine(userID).setPin(newPIN);
-
-                // make sure to write the updated data to file
-                parser.write();
-
-                // confirm with user the creation of the user
-                System.out.println("The PIN was successfully changed.");
-            } catch (IOException e) {
-                // catch the IOException
-                // not sure what the exception is
-                // so just make it generic
-                throw new UserError("An unexpected error occured", UserError.ErrorType.GENERIC);
-            }
+            // the two PINs are the same, change the PIN and save it
+            service().changePIN(userID, newPIN);
+
+            // confirm with user the change of the PIN
+            out.println("The PIN was successfully changed.");
         } else {
             // the two PINs are not the same, throw an error
             throw new UserError("The two PINs are not the same");
@@ -643,9 +440,67 @@ public class ATM {
     }
 
 
-    private static double round(double value) {
-        // round to 2 decimal places
-        return Math.round(value * 100.0) / 100.0;
+    /**
+     * Ask which account to use for a deposit or withdrawal. If the user has
+     * no accounts, offer to open one and return null
+     * @param userID the user id number
+     * @param sc scanner to read answers from
+     * @param out where to print the questions
+     * @param question what to ask if the user has both accounts
+     * @return the account to use, or null if there is none
+     */
+    private static Line.AccountType chooseAccount(int userID, Scanner sc, PrintStream out, String question) throws UserError {
+        ATMService service = service();
+        boolean accountChecking = service.hasAccount(userID, Line.AccountType.CHECKING);
+        boolean accountSavings = service.hasAccount(userID, Line.AccountType.SAVINGS);
+
+        if (accountChecking && accountSavings) {
+            // if they have 2 we want to know which account they want to use
+            out.print(question);
+            return Objects.equals(sc.nextLine(), "c") ? Line.AccountType.CHECKING : Line.AccountType.SAVINGS;
+        } else if (accountChecking) {
+            return Line.AccountType.CHECKING;
+        } else if (accountSavings) {
+            return Line.AccountType.SAVINGS;
+        }
+
+        // if they have no accounts print and error and ask for if they want to make one
+        out.println("Error, you have no accounts!");
+        for (;;) {
+            // prompts user to ask if they want a new account
+            out.print("Do you want to make an account?(y/n) ");
+            String newAccount = sc.nextLine();
+            // checks whether they do want a new account
+            if (newAccount.equals("y")) {
+                // create a new account via createAccount()
+                createAccount(userID, sc, out);
+                return null;
+            } else if (newAccount.equals("n")) {
+                return null;
+            }
+            // the input was not valid
+            out.println("Please enter a valid input\n");
+        }
+    }
+
+    private static ATMService service() throws UserError {
+        // every prompt works on the shared data
+        try {
+            return AccountStore.service();
+        } catch (IOException e) {
+            throw new UserError("An unexpected error occured", UserError.ErrorType.GENERIC);
+        }
+    }
+
+    private static long readCents(Scanner sc, PrintStream out) {
+        // read a dollar amount and convert it to cents,
+        // anything that is not a number counts as 0 (invalid)
+        try {
+            return Money.parseCents(sc.nextLine().trim());
+        } catch (NumberFormatException e) {
+            out.println("Please enter a number.");
+            return 0;
+        }
     }
 }
 
@@ -660,7 +515,12 @@ class UserError extends Exception{
     public enum ErrorType {
         GENERIC,
         INVALID_ID,
-        INVALID_PIN
+        INVALID_PIN,
+        DUPLICATE_ID,
+        NO_ACCOUNT,
+        ACCOUNT_OPEN,
+        INVALID_AMOUNT,
+        INSUFFICIENT_FUNDS
     }
     public UserError(String errorMessage){
         super(errorMessage);
@@ -677,6 +537,11 @@ class UserError extends Exception{
             case GENERIC -> "An error occurred";
             case INVALID_ID -> "The specified user was not found";
             case INVALID_PIN -> "The specified PIN was invalid";
+            case DUPLICATE_ID -> "The specified user already exists";
+            case NO_ACCOUNT -> "The account is not open";
+            case ACCOUNT_OPEN -> "The account is already open";
+            case INVALID_AMOUNT -> "The amount was invalid";
+            case INSUFFICIENT_FUNDS -> "There is not enough money in the account";
             default -> "Unknown error";
         };
     }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Serves the ATM menu (Main.loop) to many terminals at once. Each terminal
+ * connects to a local socket and gets its own session thread, and every
+ * session works on the same shared data (AccountStore).
+ * <br>
+ * Usage: java ATMServer [port] [max sessions]
+ */
+public class ATMServer {
+    public static final int DEFAULT_PORT = 5000;
+    public static final int DEFAULT_MAX_SESSIONS = 1000;
+
+    private final int port;
+    private final Semaphore sessions;
+
+    /**
+     * Create a server
+     * @param port port to listen on (only on this computer)
+     * @param maxSessions how many terminals can be connected at the same time
+     */
+    public ATMServer(int port, int maxSessions) {
+        this.port = port;
+        this.sessions = new Semaphore(maxSessions);
+    }
+
+    /**
+     * Accept terminals until the program is stopped
+     * @throws IOException if the port could not be opened
+     */
+    public void serve() throws IOException {
+        ExecutorService executor = sessionExecutor();
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.out.println("ATM server listening on port " + server.getLocalPort());
+            for (;;) {
+                Socket socket = server.accept();
+                if (!sessions.tryAcquire()) {
+                    // too many terminals, turn this one away
+                    try (PrintStream out = new PrintStream(socket.getOutputStream(), true)) {
+                        out.println("The ATM is busy, please try again later.");
+                    }
+                    socket.close();
+                    continue;
+                }
+                executor.submit(() -> session(socket));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void session(Socket socket) {
+        try (socket) {
+            Scanner sc = new Scanner(socket.getInputStream());
+            PrintStream out = new PrintStream(socket.getOutputStream(), true);
+            // same menu as the console, until the terminal disconnects
+            Main.run(sc, out);
+        } catch (IOException ignored) {
+            // the terminal went away
+        } finally {
+            sessions.release();
+        }
+    }
+
+    private static ExecutorService sessionExecutor() {
+        // one virtual thread per session when the JVM has them (Java 21+),
+        // otherwise a normal thread per session
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int maxSessions = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_SESSIONS;
+
+        // read data.csv once, every session shares the same data
+        try {
+            AccountStore.load(ATM.CSV_DIRECTORY);
+            new ATMServer(port, maxSessions).serve();
+        } catch (IOException e) {
+            System.out.println("A problem occurred: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,607 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The ATM operations without any prompts. Every method takes everything it
+ * needs as arguments and either returns the result or throws a UserError
+ * saying why the operation was refused, so the same logic can be used from
+ * the console (ATM), from other programs and from benchmarks.
+ * Amounts are in cents (see Money). Each operation holds the lock for its
+ * user id while it reads and changes the line, so several sessions (see
+ * ATMServer) can share one service and only wait for each other when they
+ * work on the same user. The locks belong to the parser (see
+ * CSVParser.userLocks), so two services on the same parser keep out of
+ * each other's way too.
+ */
+public class ATMService {
+    private final CSVParser parser;
+    private final StripedLock locks;
+    // when false, changes are only made in memory and the caller writes the
+    // file itself (see BatchProcessor)
+    private final boolean autoSave;
+    // for picking new user ids
+    private final Random random = new Random();
+
+    /**
+     * Create a service that works on the given data
+     * @param parser the accounts to work on
+     */
+    public ATMService(CSVParser parser) {
+        this(parser, true);
+    }
+
+    /**
+     * Create a service that works on the given data
+     * @param parser the accounts to work on
+     * @param autoSave true to save every change right away, false to leave
+     *                 saving to the caller
+     */
+    public ATMService(CSVParser parser, boolean autoSave) {
+        this.parser = parser;
+        // the locks come with the data, so other services on the same
+        // parser (BatchProcessor, InterestAccrual) wait for this one
+        this.locks = parser.userLocks();
+        this.autoSave = autoSave;
+    }
+
+    /**
+     * get the data this service works on
+     * @return the CSVParser
+     */
+    public CSVParser getParser() {
+        return parser;
+    }
+
+    /**
+     * check if a user exists
+     * @param userID the user id number
+     * @return true if the user exists
+     */
+    public boolean exists(int userID) {
+        try {
+            parser.getLine(userID);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Validate user login
+     * @param userID the user id number (6 digit unsigned integer)
+     * @param pin the user's 4 digit pin (string)
+     * @return true if the pin is correct, false if it is not
+     * @throws UserError INVALID_ID if the user does not exist
+     */
+    public boolean validateLogin(int userID, String pin) throws UserError {
+        long start = System.nanoTime();
+        Events.Transaction event = Events.Transaction.begin(userID, Metrics.Op.VALIDATE_LOGIN);
+        ReentrantLock lock = locks.get(userID);
+        lock.lock();
+        try {
+            boolean valid = pin.equals(find(userID).getPin());
+            if (!valid) {
+                event.outcome = UserError.ErrorType.INVALID_PIN.name();
+            }
+            return valid;
+        } catch (UserError e) {
+            Metrics.Op.VALIDATE_LOGIN.error();
+            event.failed(e);
+            throw e;
+        } finally {
+            lock.unlock();
+            Metrics.Op.VALIDATE_LOGIN.record(start);
+            event.commit();
+        }
+    }
+
+    /**
+     * get the full name of a user
+     * @param userID the user id number
+     * @return first and last name, separated by a space
+     * @throws UserError INVALID_ID if the user does not exist
+     */
+    public String name(int userID) throws UserError {
+        ReentrantLock lock = locks.get(userID);
+        lock.lock();
+        try {
+            Line line = find(userID);
+            return line.getfName() + " " + line.getlName();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Create a new user with both accounts closed
+     * @param userID 6 digit positive user id, must not be used yet
+     * @param fName first name
+     * @param lName last name
+     * @param pin 4 digit positive pin
+     * @throws UserError INVALID_ID if the id is not 6 digits, DUPLICATE_ID if
+     * it is already used, INVALID_PIN if the pin is not 4 digits
+     */
+    public void createUser(int userID, String fName, String lName, String pin) throws UserError {
+        long start = System.nanoTime();
+        Events.Transaction event = Events.Transaction.begin(userID, Metrics.Op.CREATE_USER);
+        ReentrantLock lock = locks.get(userID);
+        lock.lock();
+        try {
+            if (userID < 100000 || userID > 999999) {
+                throw new UserError("The user ID must be a 6-digit positive number", UserError.ErrorType.INVALID_ID);
+            }
+            checkPIN(pin);
+            // taking the id is the uniqueness check, so two sessions can not
+            // both create the same user
+            if (!parser.ids().add(userID)) {
+                throw new UserError("User ID already exists", UserError.ErrorType.DUPLICATE_ID);
+            }
+            Line line = new Line(Integer.toString(userID), fName.toUpperCase(), lName.toUpperCase(), pin);
+            try {
+                parser.addLine(line);
+            } catch (IOException e) {
+                parser.ids().remove(userID);
+                throw new UserError("An unexpected error occured", UserError.ErrorType.GENERIC);
+            }
+            save(line);
+        } catch (UserError e) {
+            Metrics.Op.CREATE_USER.error();
+            event.failed(e);
+            throw e;
+        } finally {
+            lock.unlock();
+            Metrics.Op.CREATE_USER.record(start);
+            event.commit();
+        }
+    }
+
+    /**
+     * Create a new user with both accounts closed and a free id picked at
+     * random
+     * @param fName first name
+     * @param lName last name
+     * @param pin 4 digit positive pin
+     * @return the new user's id
+     * @throws UserError INVALID_PIN if the pin is not 4 digits, GENERIC if
+     * every id is taken
+     */
+    public int createUser(String fName, String lName, String pin) throws UserError {
+        for (;;) {
+            int userID = parser.ids().randomFree(random);
+            if (userID < 0) {
+                throw new UserError("There are no free user IDs left", UserError.ErrorType.GENERIC);
+            }
+            try {
+                createUser(userID, fName, lName, pin);
+                return userID;
+            } catch (UserError e) {
+                // someone else took the id first, pick another one
+                if (e.errorType != UserError.ErrorType.DUPLICATE_ID) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * check if a user has an account open
+     * @param userID the user id number
+     * @param type which account
+     * @return true if the account is open
+     * @throws UserError INVALID_ID if the user does not exist
+     */
+    public boolean hasAccount(int userID, Line.AccountType type) throws UserError {
+        ReentrantLock lock = locks.get(userID);
+        lock.lock();
+        try {
+            Line line = find(userID);
+            return type == Line.AccountType.CHECKING ? line.isChecking() : line.isSavings();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * get the balance of an account
+     * @param userID the user id number
+     * @param type which account
+     * @return the balance in cents
+     * @throws UserError INVALID_ID if the user does not exist, NO_ACCOUNT if
+     * the account is not open
+     */
+    public long balance(int userID, Line.AccountType type) throws UserError {
+        ReentrantLock lock = locks.get(userID);
+        lock.lock();
+        try {
+            Line line = find(userID);
+            checkOpen(line, type);
+            return type == Line.AccountType.CHECKING ? line.centsOfChecking() : line.centsOfSavings();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Open an account with a balance of $0
+     * @param userID the user id number
+     * @param type which account
+     * @throws UserError INVALID_ID if the user does not exist, ACCOUNT_OPEN if
+     * the account is already open
+     */
+    public void openAccount(int userID, Line.AccountType type) throws UserError {
+        long start = System.nanoTime();
+        Events.Transaction event = Events.Transaction.begin(userID, Metrics.Op.CREATE_ACCOUNT, type, 0);
+        ReentrantLock lock = locks.get(userID);
+        lock.lock();
+        try {
+            open(find(userID), type);
+        } catch (UserError e) {
+            Metrics.Op.CREATE_ACCOUNT.error();
+            event.failed(e);
+            throw e;
+        } finally {
+            lock.unlock();
+            Metrics.Op.CREATE_ACCOUNT.record(start);
+            event.commit();
+        }
+    }
+
+    /**
+     * Close an account
+     * @param userID the user id number
+     * @param type which account
+     * @throws UserError INVALID_ID if the user does not exist, NO_ACCOUNT if
+     * the account is not open
+     */
+    public void closeAccount(int userID, Line.AccountType type) throws UserError {
+        long start = System.nanoTime();
+        Events.Transaction event = Events.Transaction.begin(userID, Metrics.Op.CLOSE_ACCOUNT, type, 0);
+        ReentrantLock lock = locks.get(userID);
+        lock.lock();
+        try {
+            close(find(userID), type);
+        } catch (UserError e) {
+            Metrics.Op.CLOSE_ACCOUNT.error();
+            event.failed(e);
+            throw e;
+        } finally {
+            lock.unlock();
+            Metrics.Op.CLOSE_ACCOUNT.record(start);
+            event.commit();
+        }
+    }
+
+    /**
+     * Open whichever account the user does not have yet, or the preferred one
+     * if both are closed. The check and the change are done together under
+     * the user's lock, so two sessions can not both open the same account
+     * @param userID the user id number
+     * @param preferred which account to open if the user has none
+     * @return the account that was opened
+     * @throws UserError INVALID_ID if the user does not exist, ACCOUNT_OPEN if
+     * both accounts are already open
+     */
+    public Line.AccountType openNextAccount(int userID, Line.AccountType preferred) throws UserError {
+        long start = System.nanoTime();
+        Events.Transaction event = Events.Transaction.begin(userID, Metrics.Op.CREATE_ACCOUNT, preferred, 0);
+        ReentrantLock lock = locks.get(userID);
+        lock.lock();
+        try {
+            Line line = find(userID);
+            Line.AccountType type;
+            if (line.isChecking() && line.isSavings()) {
+                throw new UserError("Both accounts are already open", UserError.ErrorType.ACCOUNT_OPEN);
+            } else if (line.isChecking()) {
+                type = Line.AccountType.SAVINGS;
+            } else if (line.isSavings()) {
+                type = Line.AccountType.CHECKING;
+            } else {
+                type = preferred;
+            }
+            open(line, type);
+            return type;
+        } catch (UserError e) {
+            Metrics.Op.CREATE_ACCOUNT.error();
+            event.failed(e);
+            throw e;
+        } finally {
+            lock.unlock();
+            Metrics.Op.CREATE_ACCOUNT.record(start);
+            event.commit();
+        }
+    }
+
+    /**
+     * Close whichever account the user has open, or the preferred one if both
+     * are open. The check and the change are done together under the user's
+     * lock
+     * @param userID the user id number
+     * @param preferred which account to close if the user has both
+     * @return the account that was closed
+     * @throws UserError INVALID_ID if the user does not exist, NO_ACCOUNT if
+     * both accounts are closed
+     */
+    public Line.AccountType closeNextAccount(int userID, Line.AccountType preferred) throws UserError {
+        long start = System.nanoTime();
+        Events.Transaction event = Events.Transaction.begin(userID, Metrics.Op.CLOSE_ACCOUNT, preferred, 0);
+        ReentrantLock lock = locks.get(userID);
+        lock.lock();
+        try {
+            Line line = find(userID);
+            Line.AccountType type;
+            if (!line.isChecking() && !line.isSavings()) {
+                throw new UserError("No account is open", UserError.ErrorType.NO_ACCOUNT);
+            } else if (!line.isSavings()) {
+                type = Line.AccountType.CHECKING;
+            } else if (!line.isChecking()) {
+                type = Line.AccountType.SAVINGS;
+            } else {
+                type = preferred;
+            }
+            close(line, type);
+            return type;
+        } catch (UserError e) {
+            Metrics.Op.CLOSE_ACCOUNT.error();
+            event.failed(e);
+            throw e;
+        } finally {
+            lock.unlock();
+            Metrics.Op.CLOSE_ACCOUNT.record(start);
+            event.commit();
+        }
+    }
+
+    /**
+     * Deposit money into an account
+     * @param userID the user id number
+     * @param type which account
+     * @param cents amount to deposit in cents, must be positive
+     * @return the new balance in cents
+     * @throws UserError INVALID_ID if the user does not exist, NO_ACCOUNT if
+     * the account is not open, INVALID_AMOUNT if the amount is not positive
+     */
+    public long deposit(int userID, Line.AccountType type, long cents) throws UserError {
+        long start = System.nanoTime();
+        Events.Transaction event = Events.Transaction.begin(userID, Metrics.Op.DEPOSIT, type, cents);
+        ReentrantLock lock = locks.get(userID);
+        lock.lock();
+        try {
+            Line line = find(userID);
+            checkOpen(line, type);
+            if (cents <= 0) {
+                throw new UserError("The amount must be positive", UserError.ErrorType.INVALID_AMOUNT);
+            }
+            long balance;
+            try {
+                if (type == Line.AccountType.CHECKING) {
+                    balance = Money.add(line.centsOfChecking(), cents);
+                    line.setCentsOfChecking(balance);
+                } else {
+                    balance = Money.add(line.centsOfSavings(), cents);
+                    line.setCentsOfSavings(balance);
+                }
+            } catch (ArithmeticException e) {
+                throw new UserError("The balance would be too large", UserError.ErrorType.INVALID_AMOUNT);
+            }
+            save(line);
+            return balance;
+        } catch (UserError e) {
+            Metrics.Op.DEPOSIT.error();
+            event.failed(e);
+            throw e;
+        } finally {
+            lock.unlock();
+            Metrics.Op.DEPOSIT.record(start);
+            event.commit();
+        }
+    }
+
+    /**
+     * Pay interest into an account: the balance times the rate, rounded to
+     * whole cents
+     * @param userID the user id number
+     * @param type which account
+     * @param rate e.g. 0.0025 for 0.25%
+     * @param rounding how to round the interest to whole cents
+     * @return the interest paid in cents
+     * @throws UserError INVALID_ID if the user does not exist, NO_ACCOUNT if
+     * the account is not open, INVALID_AMOUNT if the balance would not fit
+     */
+    public long payInterest(int userID, Line.AccountType type, BigDecimal rate, RoundingMode rounding) throws UserError {
+        long start = System.nanoTime();
+        Events.Transaction event = Events.Transaction.begin(userID, Metrics.Op.PAY_INTEREST, type, 0);
+        ReentrantLock lock = locks.get(userID);
+        lock.lock();
+        try {
+            Line line = find(userID);
+            checkOpen(line, type);
+            long interest;
+            try {
+                if (type == Line.AccountType.CHECKING) {
+                    interest = Money.multiply(line.centsOfChecking(), rate, rounding);
+                    line.setCentsOfChecking(Money.add(line.centsOfChecking(), interest));
+                } else {
+                    interest = Money.multiply(line.centsOfSavings(), rate, rounding);
+                    line.setCentsOfSavings(Money.add(line.centsOfSavings(), interest));
+                }
+            } catch (ArithmeticException e) {
+                throw new UserError("The balance would be too large", UserError.ErrorType.INVALID_AMOUNT);
+            }
+            event.amount = interest;
+            save(line);
+            return interest;
+        } catch (UserError e) {
+            Metrics.Op.PAY_INTEREST.error();
+            event.failed(e);
+            throw e;
+        } finally {
+            lock.unlock();
+            Metrics.Op.PAY_INTEREST.record(start);
+            event.commit();
+        }
+    }
+
+    /**
+     * Withdraw money from an account. The amount has to be less than the
+     * balance
+     * @param userID the user id number
+     * @param type which account
+     * @param cents amount to withdraw in cents, must be positive
+     * @return the new balance in cents
+     * @throws UserError INVALID_ID if the user does not exist, NO_ACCOUNT if
+     * the account is not open, INVALID_AMOUNT if the amount is not positive,
+     * INSUFFICIENT_FUNDS if the balance is too small
+     */
+    public long withdraw(int userID, Line.AccountType type, long cents) throws UserError {
+        long start = System.nanoTime();
+        Events.Transaction event = Events.Transaction.begin(userID, Metrics.Op.WITHDRAW, type, cents);
+        ReentrantLock lock = locks.get(userID);
+        lock.lock();
+        try {
+            Line line = find(userID);
+            checkOpen(line, type);
+            if (cents <= 0) {
+                throw new UserError("The amount must be positive", UserError.ErrorType.INVALID_AMOUNT);
+            }
+            long original = type == Line.AccountType.CHECKING ? line.centsOfChecking() : line.centsOfSavings();
+            if (original <= cents) {
+                throw new UserError("Cannot withdraw that much", UserError.ErrorType.INSUFFICIENT_FUNDS);
+            }
+            long balance = Money.subtract(original, cents);
+            if (type == Line.AccountType.CHECKING) {
+                line.setCentsOfChecking(balance);
+            } else {
+                line.setCentsOfSavings(balance);
+            }
+            save(line);
+            return balance;
+        } catch (UserError e) {
+            Metrics.Op.WITHDRAW.error();
+            event.failed(e);
+            throw e;
+        } finally {
+            lock.unlock();
+            Metrics.Op.WITHDRAW.record(start);
+            event.commit();
+        }
+    }
+
+    /**
+     * Change a user's pin
+     * @param userID the user id number
+     * @param pin the new 4 digit positive pin
+     * @throws UserError INVALID_ID if the user does not exist, INVALID_PIN if
+     * the pin is not 4 digits
+     */
+    public void changePIN(int userID, String pin) throws UserError {
+        long start = System.nanoTime();
+        Events.Transaction event = Events.Transaction.begin(userID, Metrics.Op.CHANGE_PIN);
+        ReentrantLock lock = locks.get(userID);
+        lock.lock();
+        try {
+            checkPIN(pin);
+            Line line = find(userID);
+            line.setPin(pin);
+            save(line);
+        } catch (UserError e) {
+            Metrics.Op.CHANGE_PIN.error();
+            event.failed(e);
+            throw e;
+        } finally {
+            lock.unlock();
+            Metrics.Op.CHANGE_PIN.record(start);
+            event.commit();
+        }
+    }
+
+    /**
+     * check that a pin is a 4 digit positive number
+     * @param pin the pin
+     * @throws UserError INVALID_PIN if it is not
+     */
+    public static void checkPIN(String pin) throws UserError {
+        try {
+            if (pin.length() != 4 || Integer.parseInt(pin) <= 0) {
+                throw new UserError("The PIN must be a 4-digit positive number", UserError.ErrorType.INVALID_PIN);
+            }
+        } catch (NumberFormatException e) {
+            throw new UserError("The PIN must be a 4-digit positive number", UserError.ErrorType.INVALID_PIN);
+        }
+    }
+
+    private Line find(int userID) throws UserError {
+        try {
+            return parser.getLine(userID);
+        } catch (IOException e) {
+            throw new UserError("User ID not found", UserError.ErrorType.INVALID_ID);
+        }
+    }
+
+    private void open(Line line, Line.AccountType type) throws UserError {
+        // open the account with a balance of 0 and save it
+        if (type == Line.AccountType.CHECKING) {
+            if (line.isChecking()) {
+                throw new UserError("The checking account is already open", UserError.ErrorType.ACCOUNT_OPEN);
+            }
+            line.setChecking(true);
+            line.setCentsOfChecking(0);
+        } else {
+            if (line.isSavings()) {
+                throw new UserError("The savings account is already open", UserError.ErrorType.ACCOUNT_OPEN);
+            }
+            line.setSavings(true);
+            line.setCentsOfSavings(0);
+        }
+        save(line);
+    }
+
+    private void close(Line line, Line.AccountType type) throws UserError {
+        // close the account (the balance goes back to -1) and save it
+        checkOpen(line, type);
+        if (type == Line.AccountType.CHECKING) {
+            line.setChecking(false);
+        } else {
+            line.setSavings(false);
+        }
+        save(line);
+    }
+
+    private static void checkOpen(Line line, Line.AccountType type) throws UserError {
+        boolean open = type == Line.AccountType.CHECKING ? line.isChecking() : line.isSavings();
+        if (!open) {
+            throw new UserError(type == Line.AccountType.CHECKING ? "No checking account" : "No savings account",
+                    UserError.ErrorType.NO_ACCOUNT);
+        }
+    }
+
+    private void save(Line line) throws UserError {
+        if (!autoSave) {
+            return;
+        }
+        try {
+            parser.commit(line);
+        } catch (IOException e) {
+            throw new UserError("An unexpected error occured", UserError.ErrorType.GENERIC);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+
+/**
+ * Holds the one CSVParser that the whole program shares. The csv file is
+ * read once (on the first get() or an explicit load()) and every change is
+ * made to the shared copy and then written out, so the copy in memory is
+ * always the most recent data.
+ */
+public class AccountStore {
+    private static CSVParser parser = null;
+    private static ATMService service = null;
+    private static Ledger ledger = null;
+
+    /**
+     * get the shared CSVParser, reading ATM.CSV_DIRECTORY the first time
+     * @return the shared CSVParser
+     * @throws IOException if the file could not be read
+     */
+    public static synchronized CSVParser get() throws IOException {
+        if (parser == null) {
+            load(ATM.CSV_DIRECTORY);
+        }
+        return parser;
+    }
+
+    /**
+     * read a csv file and make it the shared data, replacing whatever was
+     * loaded before
+     * @param fileName relative or absolute path to the csv file + file name
+     * @return the new shared CSVParser
+     * @throws IOException if the file could not be read
+     */
+    public static synchronized CSVParser load(String fileName) throws IOException {
+        // publish the counters before the first (timed) load
+        Metrics.register();
+        if (ATM.METRICS_DUMP_SECONDS > 0) {
+            Metrics.startDump(ATM.METRICS_DUMP_SECONDS, System.out);
+        }
+
+        CSVParser old = parser;
+        if (old != null) {
+            old.stopWatching();
+            // saves whatever the old parser still had waiting
+            old.setWriteBehind(0);
+        }
+        if (ATM.SHARDS > 0) {
+            parser = new ShardedCSVParser(fileName, ATM.SHARDS, ShardedCSVParser.Split.valueOf(ATM.SHARD_SPLIT));
+        } else if (ATM.BINARY) {
+            parser = new BinaryCSVParser(fileName);
+        } else {
+            parser = new CSVParser(fileName);
+        }
+        if (old != null) {
+            // sessions that are still using the old service hold the same
+            // locks as the ones that start on the new one
+            parser.shareUserLocks(old.userLocks());
+        }
+        parser.setJournaled(ATM.JOURNAL);
+        parser.setWriteBehind(ATM.WRITE_BEHIND_MILLIS);
+        parser.setWaitForFlush(ATM.WAIT_FOR_FLUSH);
+        if (ATM.AGGREGATES) {
+            parser.aggregates();
+        }
+        if (ATM.NAME_INDEX) {
+            parser.nameIndex();
+        }
+        if (ATM.LEDGER_DIRECTORY != null) {
+            if (ledger == null) {
+                ledger = new Ledger(ATM.LEDGER_DIRECTORY);
+            }
+            parser.setLedger(ledger);
+        }
+        if (ATM.WATCH) {
+            parser.startWatching();
+        }
+        service = new ATMService(parser);
+        return parser;
+    }
+
+    /**
+     * get the ledger the shared data records its balance changes in
+     * @return the ledger, or null if ATM.LEDGER_DIRECTORY is not set
+     * @throws IOException if the file could not be read
+     */
+    public static synchronized Ledger ledger() throws IOException {
+        get();
+        return ledger;
+    }
+
+    /**
+     * get an ATMService that works on the shared data
+     * @return the shared ATMService
+     * @throws IOException if the file could not be read
+     */
+    public static synchronized ATMService service() throws IOException {
+        get();
+        return service;
+    }
+
+    /**
+     * throw away the shared data and read the same file again. Only needed
+     * if something other than this program changed the file (and
+     * ATM.WATCH is off, otherwise the parser notices by itself)
+     * @return the new shared CSVParser
+     * @throws IOException if the file could not be read
+     */
+    public static synchronized CSVParser reload() throws IOException {
+        if (parser instanceof BinaryCSVParser) {
+            return load(((BinaryCSVParser) parser).csvFile());
+        }
+        return load(parser == null ? ATM.CSV_DIRECTORY : parser.file);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals over every user of a parser: number of users, open accounts
+ * and the sum of their balances per account type, and every open account
+ * sorted by balance for top-N queries. The parser keeps them up to date as
+ * lines are added, removed and changed (see CSVParser.aggregates()), so
+ * reading a total does not go through the users.
+ */
+public class Aggregates {
+    /**
+     * One account's balance, ordered from the highest balance down
+     */
+    public static class Balance implements Comparable<Balance> {
+        public final int id;
+        public final long cents;
+
+        Balance(int id, long cents) {
+            this.id = id;
+            this.cents = cents;
+        }
+
+        @Override
+        public int compareTo(Balance other) {
+            int c = Long.compare(other.cents, this.cents);
+            return c != 0 ? c : Integer.compare(this.id, other.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Balance && ((Balance) o).id == id && ((Balance) o).cents == cents;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * id + Long.hashCode(cents);
+        }
+
+        @Override
+        public String toString() {
+            return id + " " + Money.format(cents);
+        }
+    }
+
+    private final LongAdder users = new LongAdder();
+    private final LongAdder checkingOpen = new LongAdder();
+    private final LongAdder savingsOpen = new LongAdder();
+    private final LongAdder checkingSum = new LongAdder();
+    private final LongAdder savingsSum = new LongAdder();
+    private final ConcurrentSkipListSet<Balance> checkingBalances = new ConcurrentSkipListSet<>();
+    private final ConcurrentSkipListSet<Balance> savingsBalances = new ConcurrentSkipListSet<>();
+
+    /**
+     * count a line
+     * @param line the line
+     */
+    void add(Line line) {
+        users.increment();
+        if (line.isChecking()) {
+            checkingOpen.increment();
+            checkingSum.add(line.centsOfChecking());
+            checkingBalances.add(new Balance(line.intId(), line.centsOfChecking()));
+        }
+        if (line.isSavings()) {
+            savingsOpen.increment();
+            savingsSum.add(line.centsOfSavings());
+            savingsBalances.add(new Balance(line.intId(), line.centsOfSavings()));
+        }
+    }
+
+    /**
+     * stop counting a line, it must look the same as when it was added
+     * @param line the line
+     */
+    void remove(Line line) {
+        users.decrement();
+        if (line.isChecking()) {
+            checkingOpen.decrement();
+            checkingSum.add(-line.centsOfChecking());
+            checkingBalances.remove(new Balance(line.intId(), line.centsOfChecking()));
+        }
+        if (line.isSavings()) {
+            savingsOpen.decrement();
+            savingsSum.add(-line.centsOfSavings());
+            savingsBalances.remove(new Balance(line.intId(), line.centsOfSavings()));
+        }
+    }
+
+    /**
+     * number of users
+     * @return number of users
+     */
+    public long users() {
+        return users.sum();
+    }
+
+    /**
+     * number of open accounts of a type
+     * @param type which account
+     * @return number of open accounts
+     */
+    public long open(Line.AccountType type) {
+        return type == Line.AccountType.CHECKING ? checkingOpen.sum() : savingsOpen.sum();
+    }
+
+    /**
+     * sum of the balances of the open accounts of a type
+     * @param type which account
+     * @return the sum in cents
+     */
+    public long sum(Line.AccountType type) {
+        return type == Line.AccountType.CHECKING ? checkingSum.sum() : savingsSum.sum();
+    }
+
+    /**
+     * the accounts of a type with the highest balances
+     * @param type which account
+     * @param n how many
+     * @return up to n accounts, highest balance first
+     */
+    public List<Balance> top(Line.AccountType type, int n) {
+        List<Balance> top = new ArrayList<>(n);
+        Iterator<Balance> it = (type == Line.AccountType.CHECKING ? checkingBalances : savingsBalances).iterator();
+        while (top.size() < n && it.hasNext()) {
+            top.add(it.next());
+        }
+        return top;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d users, %d checking accounts (%s), %d savings accounts (%s)",
+                users(), open(Line.AccountType.CHECKING), Money.format(sum(Line.AccountType.CHECKING)),
+                open(Line.AccountType.SAVINGS), Money.format(sum(Line.AccountType.SAVINGS)));
+    }
+}
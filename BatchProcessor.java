@@ -0,0 +1,259 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies a file of deposits and withdrawals in one go. Every row looks like
+ * <br>
+ * id,account,type,amount <br>
+ * where account is c (checking) or s (savings), type is D (deposit) or W
+ * (withdraw) and amount is in dollars, e.g. 123456,c,D,10.50. Empty rows and
+ * rows starting with # are skipped.
+ * <br>
+ * The rows are split between worker threads by user id, so every user's rows
+ * are still applied in file order. The same rules as the ATM are used (see
+ * ATMService), and data.csv is written once at the end.
+ * <br>
+ * Usage: java BatchProcessor transactions.csv [data.csv]
+ */
+public class BatchProcessor {
+    // rows waiting for each worker
+    static final int QUEUE_SIZE = 4096;
+
+    /**
+     * A row that was not applied
+     */
+    public static class Rejected {
+        public final long lineNumber;
+        public final String row;
+        public final String reason;
+
+        Rejected(long lineNumber, String row, String reason) {
+            this.lineNumber = lineNumber;
+            this.row = row;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + lineNumber + " (" + row + "): " + reason;
+        }
+    }
+
+    /**
+     * What happened when a batch was run
+     */
+    public static class Report {
+        public long applied;
+        public long nanos;
+        public final List<Rejected> rejected = new ArrayList<>();
+
+        /**
+         * rows handled per second (applied and rejected)
+         * @return rows per second
+         */
+        public double rowsPerSecond() {
+            return (applied + rejected.size()) / (nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d applied, %d rejected in %.3f s (%.0f rows/s)",
+                    applied, rejected.size(), nanos / 1e9, rowsPerSecond());
+        }
+    }
+
+    private static class Entry {
+        final long lineNumber;
+        final String row;
+        final int id;
+        final Line.AccountType type;
+        final boolean deposit;
+        final long cents;
+
+        Entry(long lineNumber, String row, int id, Line.AccountType type, boolean deposit, long cents) {
+            this.lineNumber = lineNumber;
+            this.row = row;
+            this.id = id;
+            this.type = type;
+            this.deposit = deposit;
+            this.cents = cents;
+        }
+    }
+
+    // tells a worker there are no more rows
+    private static final Entry END = new Entry(0, null, 0, null, false, 0);
+
+    private final CSVParser parser;
+    private final int workers;
+
+    /**
+     * Create a batch processor
+     * @param parser the accounts to apply the rows to
+     * @param workers number of worker threads
+     */
+    public BatchProcessor(CSVParser parser, int workers) {
+        this.parser = parser;
+        this.workers = workers;
+    }
+
+    /**
+     * Apply every row of a transaction file and then write the accounts once
+     * @param transactions path to the transaction file
+     * @return how many rows were applied, which were rejected and how long it took
+     * @throws IOException if the transaction file could not be read or the
+     * accounts could not be written
+     */
+    public Report run(String transactions) throws IOException {
+        long start = System.nanoTime();
+        // the service does not save, everything is written once at the end
+        ATMService service = new ATMService(parser, false);
+        ConcurrentLinkedQueue<Rejected> rejected = new ConcurrentLinkedQueue<>();
+        AtomicLong applied = new AtomicLong();
+
+        List<BlockingQueue<Entry>> queues = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+            Thread thread = new Thread(() -> work(queue, service, applied, rejected), "batch-" + i);
+            queues.add(queue);
+            threads.add(thread);
+            thread.start();
+        }
+
+        try (BufferedReader br = new BufferedReader(new FileReader(transactions))) {
+            String row;
+            long lineNumber = 0;
+            while ((row = br.readLine()) != null) {
+                lineNumber++;
+                if (row.isBlank() || row.startsWith("#")) {
+                    continue;
+                }
+                Entry entry = parse(lineNumber, row, rejected);
+                if (entry != null) {
+                    // the same user always goes to the same worker
+                    put(queues.get(Math.floorMod(IdAllocator.spread(entry.id), workers)), entry);
+                }
+            }
+        } finally {
+            for (BlockingQueue<Entry> queue : queues) {
+                put(queue, END);
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        parser.write();
+
+        Report report = new Report();
+        report.applied = applied.get();
+        report.rejected.addAll(rejected);
+        report.rejected.sort((a, b) -> Long.compare(a.lineNumber, b.lineNumber));
+        report.nanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private static Entry parse(long lineNumber, String row, ConcurrentLinkedQueue<Rejected> rejected) {
+        String[] fields = row.split(",");
+        if (fields.length != 4) {
+            rejected.add(new Rejected(lineNumber, row, "expected id,account,type,amount"));
+            return null;
+        }
+        try {
+            int id = Integer.parseInt(fields[0].trim());
+            String account = fields[1].trim();
+            String type = fields[2].trim();
+            if (!account.equals("c") && !account.equals("s")) {
+                rejected.add(new Rejected(lineNumber, row, "account must be c or s"));
+                return null;
+            }
+            if (!type.equals("D") && !type.equals("W")) {
+                rejected.add(new Rejected(lineNumber, row, "type must be D or W"));
+                return null;
+            }
+            return new Entry(lineNumber, row, id,
+                    account.equals("c") ? Line.AccountType.CHECKING : Line.AccountType.SAVINGS,
+                    type.equals("D"), Money.parseCents(fields[3].trim()));
+        } catch (NumberFormatException e) {
+            rejected.add(new Rejected(lineNumber, row, "not a number"));
+            return null;
+        }
+    }
+
+    private static void work(BlockingQueue<Entry> queue, ATMService service, AtomicLong applied,
+                             ConcurrentLinkedQueue<Rejected> rejected) {
+        for (;;) {
+            Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (entry == END) {
+                return;
+            }
+            try {
+                if (entry.deposit) {
+                    service.deposit(entry.id, entry.type, entry.cents);
+                } else {
+                    service.withdraw(entry.id, entry.type, entry.cents);
+                }
+                applied.incrementAndGet();
+            } catch (UserError e) {
+                rejected.add(new Rejected(entry.lineNumber, entry.row, e.getMessage()));
+            }
+        }
+    }
+
+    private static void put(BlockingQueue<Entry> queue, Entry entry) {
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading the batch", e);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java BatchProcessor transactions.csv [data.csv]");
+            return;
+        }
+        try {
+            CSVParser parser = new CSVParser(args.length > 1 ? args[1] : ATM.CSV_DIRECTORY);
+            Report report = new BatchProcessor(parser, Runtime.getRuntime().availableProcessors()).run(args[0]);
+            for (Rejected r : report.rejected) {
+                System.out.println("Rejected " + r);
+            }
+            System.out.println(report);
+        } catch (IOException e) {
+            System.out.println("A problem occurred: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Timing harness for CSVParser and ATMService. For every size it makes a data
+ * file, then times loading it, looking up, adding and removing lines, writing
+ * it, and depositing and withdrawing, comparing the different ways the parser
+ * can work (reader vs mapped vs parallel loading, index vs scan, full write
+ * vs journal).
+ * Every measurement is run a few times first to warm up the JIT.
+ * <br>
+ * Usage: java Benchmark [rows,rows,...] [directory]
+ * (default 1000,10000,100000,1000000, up to 10000000 works with enough heap)
+ */
+public class Benchmark {
+    static final int WARMUP_ROUNDS = 3;
+    static final int MEASURED_ROUNDS = 5;
+
+    /**
+     * Something to time. run is called ops times per round
+     */
+    interface Op {
+        void run(int i) throws Exception;
+    }
+
+    /**
+     * Write a data file with made up users. Ids start at 100000 and go up by
+     * one (past 999999 for files with more than 900000 rows), every user has
+     * a checking account and every second user a savings account too
+     * @param fileName path of the file to write
+     * @param rows number of users
+     * @throws IOException
+     */
+    public static void generate(String fileName, int rows) throws IOException {
+        Random random = new Random(rows);
+        StringBuilder sb = new StringBuilder(64);
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(fileName), 1 << 16)) {
+            for (int i = 0; i < rows; i++) {
+                sb.setLength(0);
+                sb.append(100000 + i).append(",FIRST").append(i % 1000).append(",LAST").append(i % 997)
+                        .append(",true,");
+                Money.format(random.nextInt(10_000_000), sb);
+                if (i % 2 == 0) {
+                    sb.append(",true,");
+                    Money.format(random.nextInt(10_000_000), sb);
+                } else {
+                    sb.append(",false,-1.00");
+                }
+                sb.append(',').append(1000 + random.nextInt(9000));
+                bw.write(sb.toString());
+                bw.newLine();
+            }
+        }
+    }
+
+    /**
+     * time an operation and print the average time per call
+     * @param name what is being timed
+     * @param rows size of the data file
+     * @param ops calls per round
+     * @param op the operation
+     * @throws Exception
+     */
+    static void measure(String name, int rows, int ops, Op op) throws Exception {
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                op.run(i);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS) {
+                total += elapsed;
+                best = Math.min(best, elapsed);
+            }
+        }
+        double average = (double) total / MEASURED_ROUNDS / ops;
+        System.out.printf("%-28s %10d rows %14.1f ns/op (best %.1f)%n", name, rows, average, (double) best / ops);
+    }
+
+    static void run(String directory, int rows) throws Exception {
+        String file = directory + File.separator + "bench-" + rows + ".csv";
+        generate(file, rows);
+        Random random = new Random(42);
+        int[] ids = new int[1024];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 100000 + random.nextInt(rows);
+        }
+
+        // loading
+        int loads = Math.max(1, 100_000 / rows);
+        measure("update (reader)", rows, loads, i -> new CSVParser(file, CSVParser.Loader.READER));
+        measure("update (mapped)", rows, loads, i -> new CSVParser(file, CSVParser.Loader.MAPPED));
+        measure("update (parallel)", rows, loads, i -> new CSVParser(file, CSVParser.Loader.PARALLEL));
+
+        // lookups
+        CSVParser parser = new CSVParser(file);
+        measure("getLine (index)", rows, 100_000, i -> parser.getLine(ids[i & 1023]));
+        parser.setIndexed(false);
+        measure("getLine (scan)", rows, Math.max(1, 1_000_000 / rows), i -> parser.getLine(ids[i & 1023]));
+        parser.setIndexed(true);
+
+        // add then remove the same users, so every round starts from the same data
+        int changes = 10_000;
+        measure("addLine + removeLine", rows, changes, i -> {
+            parser.addLine(new Line(Integer.toString(50_000_000 + i), "NEW", "USER", "1234"));
+            parser.removeLine(50_000_000 + i);
+        });
+
+        // writing
+        measure("write", rows, Math.max(1, 10_000 / rows), i -> parser.write());
+
+        // money operations, in memory only and then saved through the journal
+        ATMService memory = new ATMService(parser, false);
+        measure("deposit + withdraw (memory)", rows, 100_000, i -> {
+            memory.deposit(ids[i & 1023], Line.AccountType.CHECKING, 100);
+            memory.withdraw(ids[i & 1023], Line.AccountType.CHECKING, 100);
+        });
+        parser.setJournaled(true);
+        parser.setCompactEvery(Integer.MAX_VALUE);
+        ATMService journaled = new ATMService(parser);
+        measure("deposit + withdraw (journal)", rows, 1_000, i -> {
+            journaled.deposit(ids[i & 1023], Line.AccountType.CHECKING, 100);
+            journaled.withdraw(ids[i & 1023], Line.AccountType.CHECKING, 100);
+        });
+        parser.setJournaled(false);
+
+        new File(file).delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String sizes = args.length > 0 ? args[0] : "1000,10000,100000,1000000";
+        String directory = args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir");
+        for (String size : sizes.split(",")) {
+            run(directory, Integer.parseInt(size.trim()));
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Accounts stored as fixed size binary records instead of csv rows. Ids are
+ * 6 digits, so every possible user has its own record at
+ * HEADER_SIZE + (id - 100000) * RECORD_SIZE, and reading or changing one
+ * user only touches that record. Records of ids that are not used are never
+ * written, so on most file systems the file only takes up space for the
+ * users that exist.
+ * <br>
+ * Record layout (big endian):
+ * <br>
+ * 0 int id (0 if the record is empty) <br>
+ * 4 int flags (CHECKING_OPEN, SAVINGS_OPEN) <br>
+ * 8 long checking in cents <br>
+ * 16 long savings in cents <br>
+ * 24 pin, 40 first name, 84 last name (one length byte then UTF-8 bytes)
+ * <br>
+ * Usage: java BinaryAccountFile data.csv data.bin (or data.bin data.csv)
+ */
+public class BinaryAccountFile implements Closeable {
+    // "ATMB"
+    static final int MAGIC = 0x41544D42;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 128;
+
+    static final int CHECKING_OPEN = 1;
+    static final int SAVINGS_OPEN = 2;
+
+    static final int PIN_OFFSET = 24;
+    static final int PIN_SIZE = 16;
+    static final int FIRST_NAME_OFFSET = 40;
+    static final int LAST_NAME_OFFSET = 84;
+    static final int NAME_SIZE = 44;
+
+    private final FileChannel channel;
+
+    /**
+     * Open a binary account file, making an empty one if it does not exist
+     * @param fileName relative or absolute path to the file
+     * @throws IOException if the file can not be opened or is not an account file
+     */
+    public BinaryAccountFile(String fileName) throws IOException {
+        this.channel = FileChannel.open(Path.of(fileName),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (this.channel.size() == 0) {
+            header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(IdAllocator.MIN_ID).flip();
+            this.channel.write(header, 0);
+            return;
+        }
+        this.channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION
+                || header.getInt() != RECORD_SIZE || header.getInt() != IdAllocator.MIN_ID) {
+            this.channel.close();
+            throw new IOException(fileName + " is not an account file");
+        }
+    }
+
+    /**
+     * check if a user exists
+     * @param id user id
+     * @return true if the user has a record
+     * @throws IOException
+     */
+    public boolean contains(int id) throws IOException {
+        if (id < IdAllocator.MIN_ID || id > IdAllocator.MAX_ID) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        this.channel.read(buffer, position(id));
+        return buffer.position() == 4 && buffer.getInt(0) == id;
+    }
+
+    /**
+     * read one user
+     * @param id user id
+     * @return the user
+     * @throws IOException if there is no such user
+     */
+    public Line read(int id) throws IOException {
+        if (id < IdAllocator.MIN_ID || id > IdAllocator.MAX_ID) {
+            throw new IOException("No such id was found");
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        this.channel.read(record, position(id));
+        if (record.position() < RECORD_SIZE || record.getInt(0) != id) {
+            throw new IOException("No such id was found");
+        }
+        return decode(record);
+    }
+
+    /**
+     * write one user, adding it or replacing what was there
+     * @param line the user
+     * @throws IOException if the id is not 6 digits or a field is too long
+     */
+    public void write(Line line) throws IOException {
+        int id = line.intId();
+        if (id < IdAllocator.MIN_ID || id > IdAllocator.MAX_ID) {
+            throw new IOException("Id " + id + " does not fit in the binary file");
+        }
+        ByteBuffer record = encode(line);
+        this.channel.write(record, position(id));
+    }
+
+    /**
+     * remove a user
+     * @param id user id
+     * @throws IOException if there is no such user
+     */
+    public void remove(int id) throws IOException {
+        if (!this.contains(id)) {
+            throw new IOException("No such id was found");
+        }
+        this.channel.write(ByteBuffer.allocate(RECORD_SIZE), position(id));
+    }
+
+    /**
+     * make sure everything written so far is on disk
+     * @throws IOException
+     */
+    public void force() throws IOException {
+        this.channel.force(false);
+    }
+
+    /**
+     * read every user, in id order
+     * @param consumer gets each user
+     * @throws IOException
+     */
+    public void forEach(Consumer<Line> consumer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+        long position = HEADER_SIZE;
+        long end = this.channel.size();
+        while (position < end) {
+            buffer.clear();
+            int read = this.channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            position += read;
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                ByteBuffer record = buffer.slice(buffer.position(), RECORD_SIZE);
+                buffer.position(buffer.position() + RECORD_SIZE);
+                if (record.getInt(0) != 0) {
+                    consumer.accept(decode(record));
+                }
+            }
+            // a partial record is read again with the next block
+            position -= buffer.remaining();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * copy every row of a csv file into a binary account file. The csv file
+     * is loaded by a CSVParser, so changes still in its journal are copied too
+     * @param csvFile the csv file
+     * @param binaryFile the binary file, rows already in it are kept unless replaced
+     * @return number of rows copied
+     * @throws IOException
+     */
+    public static long fromCsv(String csvFile, String binaryFile) throws IOException {
+        CSVParser csv = new CSVParser(csvFile);
+        long rows = 0;
+        try (BinaryAccountFile binary = new BinaryAccountFile(binaryFile)) {
+            for (Line line : csv.lines()) {
+                binary.write(line);
+                rows++;
+            }
+            binary.force();
+        }
+        return rows;
+    }
+
+    /**
+     * write every user of a binary account file to a csv file, in id order
+     * @param binaryFile the binary file
+     * @param csvFile the csv file, replaced if it exists
+     * @return number of rows written
+     * @throws IOException
+     */
+    public static long toCsv(String binaryFile, String csvFile) throws IOException {
+        if (!new File(binaryFile).exists()) {
+            throw new FileNotFoundException(binaryFile);
+        }
+        long[] rows = {0};
+        try (BinaryAccountFile binary = new BinaryAccountFile(binaryFile);
+             BufferedWriter bw = new BufferedWriter(new FileWriter(csvFile), RowIterator.BUFFER_SIZE)) {
+            binary.forEach(line -> {
+                try {
+                    bw.write(line.toCSV());
+                    bw.newLine();
+                    rows[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return rows[0];
+    }
+
+    /**
+     * check that a user can be written to the binary file, so a caller can
+     * find out before changing anything in memory
+     * @param line the user
+     * @throws IOException if the id is not 6 digits or a field is too long
+     */
+    public static void checkFits(Line line) throws IOException {
+        if (line.intId() < IdAllocator.MIN_ID || line.intId() > IdAllocator.MAX_ID) {
+            throw new IOException("Id " + line.intId() + " does not fit in the binary file");
+        }
+        encode(line);
+    }
+
+    private static long position(int id) {
+        return HEADER_SIZE + (long) (id - IdAllocator.MIN_ID) * RECORD_SIZE;
+    }
+
+    private static ByteBuffer encode(Line line) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putInt(line.intId());
+        record.putInt((line.isChecking() ? CHECKING_OPEN : 0) | (line.isSavings() ? SAVINGS_OPEN : 0));
+        record.putLong(line.centsOfChecking());
+        record.putLong(line.centsOfSavings());
+        putString(record, PIN_OFFSET, PIN_SIZE, line.getPin());
+        putString(record, FIRST_NAME_OFFSET, NAME_SIZE, line.getfName());
+        putString(record, LAST_NAME_OFFSET, NAME_SIZE, line.getlName());
+        record.clear();
+        return record;
+    }
+
+    private static Line decode(ByteBuffer record) {
+        Line line = new Line(Integer.toString(record.getInt(0)), getString(record, FIRST_NAME_OFFSET),
+                getString(record, LAST_NAME_OFFSET), getString(record, PIN_OFFSET));
+        int flags = record.getInt(4);
+        // open or close first, closing resets the balance
+        line.setChecking((flags & CHECKING_OPEN) != 0);
+        line.setCentsOfChecking(record.getLong(8));
+        line.setSavings((flags & SAVINGS_OPEN) != 0);
+        line.setCentsOfSavings(record.getLong(16));
+        return line;
+    }
+
+    private static void putString(ByteBuffer record, int offset, int size, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > size - 1) {
+            throw new IOException("\"" + value + "\" is too long for the binary file");
+        }
+        record.put(offset, (byte) bytes.length);
+        record.put(offset + 1, bytes);
+    }
+
+    private static String getString(ByteBuffer record, int offset) {
+        int length = record.get(offset) & 0xFF;
+        byte[] bytes = new byte[length];
+        record.get(offset + 1, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java BinaryAccountFile data.csv data.bin (or data.bin data.csv)");
+            return;
+        }
+        try {
+            long rows = args[0].endsWith(".csv") ? fromCsv(args[0], args[1]) : toCsv(args[0], args[1]);
+            System.out.println(rows + " rows copied to " + args[1]);
+        } catch (IOException e) {
+            System.out.println("A problem occurred: " + e.getMessage());
+        }
+    }
+}
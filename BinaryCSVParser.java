@@ -0,0 +1,162 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+/**
+ * A CSVParser that keeps its users in a BinaryAccountFile instead of a csv
+ * file. The users are still all held in memory, but commit() and
+ * commitRemove() only rewrite the record of the user that changed, so
+ * saving a deposit costs the same however many users there are. write()
+ * still replaces the whole file. Since every save already only touches one
+ * record, the journal and write-behind are not used.
+ * <br>
+ * For data.csv the binary file is data.bin. If it does not exist yet but
+ * data.csv does, data.csv (with its journal replayed) is copied into it
+ * first.
+ */
+public class BinaryCSVParser extends CSVParser {
+    private final String csvFile;
+    private BinaryAccountFile records;
+
+    /**
+     * Open (or make) the binary file of a csv file
+     * @param fileName relative or absolute path to the csv file + file name,
+     * the binary file is named after it
+     * @throws IOException if the binary file could not be read
+     */
+    public BinaryCSVParser(String fileName) throws IOException {
+        super(binaryFile(fileName), Loader.READER, false);
+        this.csvFile = fileName;
+        if (!new File(this.file).exists() && new File(fileName).exists()) {
+            BinaryAccountFile.fromCsv(fileName, this.file);
+        }
+        this.records = new BinaryAccountFile(this.file);
+        this.update();
+    }
+
+    /**
+     * path of the binary file of a csv file, data.csv becomes data.bin
+     * @param fileName the csv file
+     * @return the binary file path
+     */
+    public static String binaryFile(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= fileName.lastIndexOf(File.separatorChar)) {
+            return fileName + ".bin";
+        }
+        return fileName.substring(0, dot) + ".bin";
+    }
+
+    /**
+     * the csv file this parser was opened for (the data is in the binary file)
+     * @return the csv file
+     */
+    public String csvFile() {
+        return this.csvFile;
+    }
+
+    @Override
+    void readRows(ArrayList<Line> lines) throws IOException {
+        this.records.forEach(lines::add);
+    }
+
+    /**
+     * Add a line, but only if it fits in a record, so a name that is too
+     * long is turned away before the user is in memory
+     * @param line the line to add
+     * @throws IOException if the id is not 6 digits or a field is too long
+     */
+    @Override
+    public void addLine(Line line) throws IOException {
+        BinaryAccountFile.checkFits(line);
+        super.addLine(line);
+    }
+
+    /**
+     * Save a changed (or new) line by rewriting its record
+     * @param line the line that was changed
+     * @throws IOException
+     */
+    @Override
+    public void commit(Line line) throws IOException {
+        synchronized (this) {
+            this.records.write(line);
+            this.saved();
+        }
+    }
+
+    /**
+     * Save the removal of a line by clearing its record
+     * @param id id of the user that was removed
+     * @throws IOException
+     */
+    @Override
+    public void commitRemove(int id) throws IOException {
+        synchronized (this) {
+            this.records.remove(id);
+            this.saved();
+        }
+    }
+
+    @Override
+    void saveRemoved(int id) throws IOException {
+        // a renamed line is saved under its new id by the next commit()
+        this.commitRemove(id);
+    }
+
+    @Override
+    public synchronized void setJournaled(boolean journaled) {
+        // every commit() only writes one record already
+    }
+
+    @Override
+    public void setWriteBehind(long flushWindow) {
+        // every commit() only writes one record already
+    }
+
+    @Override
+    void writeFile(boolean force) throws IOException {
+        // write every record to a new file and move it over the old one, so
+        // users that were removed do not stay behind
+        File temp = new File(this.file + ".tmp");
+        temp.delete();
+        try (BinaryAccountFile out = new BinaryAccountFile(temp.getPath())) {
+            for (Line line : this.lines()) {
+                out.write(line);
+            }
+            if (force) {
+                out.force();
+            }
+        }
+        this.records.close();
+        Files.move(temp.toPath(), Path.of(this.file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.records = new BinaryAccountFile(this.file);
+        this.saved();
+    }
+
+    private void saved() {
+        // our own write is not a change that needs to be read back
+        File data = new File(this.file);
+        this.loadedSize = data.length();
+        this.loadedModified = data.lastModified();
+    }
+}
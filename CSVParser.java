@@ -16,14 +16,103 @@
 //package se2; 
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Simple CSV Parser class
  */
 public class CSVParser {
+    /**
+     * How update() reads the file
+     */
+    public enum Loader {
+        // BufferedReader and String.split
+        READER,
+        // memory mapped, fields are only made into strings when read
+        MAPPED,
+        // like MAPPED, with big files split into pieces that are parsed on
+        // the common fork-join pool
+        PARALLEL
+    }
+
+    // number of locks the user ids are spread over
+    public static final int LOCK_STRIPES = 1024;
+
     String file;
+    Loader loader = Loader.READER;
     ArrayList<Line> lines = new ArrayList<>();
+    // removing a line only clears its slot in this.lines (Line.position), so
+    // this.lines has this many nulls until they are squeezed out
+    int removedLines = 0;
+    // id -> line, kept in sync with this.lines
+    IdIndex index = new IdIndex(1024);
+    // the ids that are taken, kept in sync with this.lines
+    volatile IdAllocator ids = new IdAllocator();
+    // running totals, only kept once aggregates() has been called
+    volatile Aggregates aggregates = null;
+    // first and last name lookups, only kept once nameIndex() has been called
+    volatile NameIndex nameIndex = null;
+    // history of balance changes, only kept once setLedger() has been called
+    volatile Ledger ledger = null;
+    // the ShardedCSVParser this parser is a shard of (null if it is not a
+    // shard), told whenever the shard is read again
+    ShardedCSVParser parent = null;
+    // set to false to look lines up with a linear scan instead of the index
+    boolean indexed = true;
+    // when true, commit() appends changed lines to the journal instead of
+    // rewriting the whole file
+    boolean journaled = false;
+    // number of journal records to allow before compacting into the csv file
+    int compactEvery = 1000;
+    int journalRecords = 0;
+    Writer journalWriter = null;
+    FileOutputStream journalStream = null;
+    // size and modification time of the file when it was last read or
+    // written, refresh() only reads it again if they changed
+    long loadedSize = -1;
+    long loadedModified = -1;
+    Thread watcher = null;
+    // write-behind: when flushWindow is more than 0, changed lines are only
+    // collected in this.dirty (id -> line, null for a removed line) and a
+    // background thread saves them at most every flushWindow milliseconds
+    volatile long flushWindow = 0;
+    volatile boolean waitForFlush = false;
+    final Object dirtyLock = new Object();
+    LinkedHashMap<Integer, Line> dirty = new LinkedHashMap<>();
+    // every change gets a number, flushedChange is the last one that was saved
+    long lastChange = 0;
+    long flushedChange = 0;
+    IOException flushError = null;
+    Thread flusher = null;
+    Thread shutdownFlush = null;
+    // guards this.lines and this.index: lookups share the read lock, adding
+    // and removing lines takes the write lock. Reading and writing files is
+    // synchronized on the parser itself
+    final ReentrantReadWriteLock structure = new ReentrantReadWriteLock();
+    // one lock per group of user ids, held while a user's line is read and
+    // changed (see ATMService). They belong to the data rather than to a
+    // service, so every service working on this parser uses the same ones
+    volatile StripedLock userLocks = new StripedLock(LOCK_STRIPES);
 
     /**
      * Create a new CSVParser object
@@ -36,15 +125,748 @@ public class CSVParser {
     }
 
     /**
-     * Update (read) the data from file to the class
+     * Create a new CSVParser object
+     * @param fileName relative or absolute path to the csv file + file name
+     * @param loader how to read the file
+     * @throws IOException
+     */
+    public CSVParser(String fileName, Loader loader) throws IOException {
+        this.file = fileName;
+        this.loader = loader;
+        this.update();
+    }
+
+    /**
+     * Create a CSVParser object without reading the file, for subclasses
+     * that read their data some other way
+     * @param fileName relative or absolute path to the csv file + file name
+     * @param loader how to read the file
+     * @param read false to leave the parser empty
+     * @throws IOException
+     */
+    protected CSVParser(String fileName, Loader loader, boolean read) throws IOException {
+        this.file = fileName;
+        this.loader = loader;
+        if (read) {
+            this.update();
+        }
+    }
+
+    /**
+     * Update (read) the data from file to the class. The file is read into a
+     * new list and index first and then swapped in, so lookups keep working
+     * on the old data while it loads and never see half of the file. Changes
+     * that were only made in memory (not saved) are lost. Every user lock is
+     * held meanwhile, so no ATMService operation is halfway through changing
+     * a line of the old data when it is swapped out
      * @throws IOException
      */
     public void update() throws IOException {
-        // read data.csv and store to this.lines
-        BufferedReader br = new BufferedReader(new FileReader(this.file));
-        String line;
-        while ((line = br.readLine()) != null) {
-            this.lines.add(new Line(line.split(",")));
+        // the user locks are taken before the parser itself, in the same
+        // order as the operations take them (they commit while holding theirs)
+        StripedLock userLocks = this.userLocks;
+        userLocks.lockAll();
+        try {
+            this.load();
+        } finally {
+            userLocks.unlockAll();
+        }
+    }
+
+    private synchronized void load() throws IOException {
+        // changes that are waiting to be written go out first
+        this.flush();
+        long start = System.nanoTime();
+        Events.CsvLoad event = new Events.CsvLoad();
+        event.begin();
+        try {
+            // remember what the file looked like before reading it, if it
+            // changes while it is read the next refresh() reads it again
+            File data = new File(this.file);
+            long size = data.length();
+            long modified = data.lastModified();
+
+            ArrayList<Line> lines = new ArrayList<>();
+            this.readRows(lines);
+            IdIndex index = new IdIndex(1024);
+            for (int i = 0; i < lines.size(); i++) {
+                Line l = lines.get(i);
+                l.position = i;
+                index.put(l.intId(), l);
+            }
+
+            // apply any changes that were journaled after the file was last written
+            int records = replayJournal(lines, index);
+            compact(lines);
+            IdAllocator ids = new IdAllocator();
+            for (Line l : lines) {
+                l.owner = this;
+                ids.add(l.intId());
+            }
+
+            ArrayList<Line> old;
+            this.structure.writeLock().lock();
+            try {
+                old = this.lines;
+                this.lines = lines;
+                this.removedLines = 0;
+                this.index = index;
+                this.ids = ids;
+            } finally {
+                this.structure.writeLock().unlock();
+            }
+            old.removeIf(l -> l == null);
+            for (Line l : old) {
+                l.owner = null;
+            }
+            if (this.aggregates != null || this.nameIndex != null) {
+                for (Line l : old) {
+                    this.untrack(l, true);
+                }
+                for (Line l : lines) {
+                    this.track(l, true);
+                }
+            }
+            this.journalRecords = records;
+            this.loadedSize = size;
+            this.loadedModified = modified;
+            ShardedCSVParser parent = this.parent;
+            if (parent != null) {
+                // the parent keeps the ids of all its shards in one allocator
+                parent.shardUpdated();
+            }
+        } finally {
+            Metrics.Op.CSV_UPDATE.record(start);
+            if (event.shouldCommit()) {
+                event.file = this.file;
+                event.rows = this.lines.size() - this.removedLines;
+                event.bytes = new File(this.file).length();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * read every row of the file, the way this.loader says
+     * @param lines where to add the rows, in file order
+     * @throws IOException
+     */
+    void readRows(ArrayList<Line> lines) throws IOException {
+        if (this.loader == Loader.MAPPED) {
+            // split the rows straight from the mapped file
+            for (MappedByteBuffer chunk : MappedReader.map(this.file)) {
+                MappedReader.parse(chunk, 0, chunk.limit(), lines);
+            }
+        } else if (this.loader == Loader.PARALLEL) {
+            for (MappedByteBuffer chunk : MappedReader.map(this.file)) {
+                MappedReader.parseParallel(chunk, 0, chunk.limit(), MappedReader.PARALLEL_THRESHOLD, lines);
+            }
+        } else {
+            // read data.csv and store to lines
+            BufferedReader br = new BufferedReader(new FileReader(this.file));
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines.add(new Line(line.split(",")));
+            }
+            br.close();
+        }
+    }
+
+    /**
+     * Read the file again, but only if its size or modification time changed
+     * since it was last read or written by this parser
+     * @return true if the file was read again
+     * @throws IOException
+     */
+    public boolean refresh() throws IOException {
+        File data = new File(this.file);
+        if (data.length() == this.loadedSize && data.lastModified() == this.loadedModified) {
+            return false;
+        }
+        this.update();
+        return true;
+    }
+
+    /**
+     * Watch the csv file on a background thread and refresh() whenever
+     * something changes it. Writes made by this parser are recognised and
+     * not read back
+     * @throws IOException if the directory can not be watched
+     */
+    public synchronized void startWatching() throws IOException {
+        if (this.watcher != null) {
+            return;
+        }
+        Path path = Path.of(this.file).toAbsolutePath();
+        WatchService service = path.getFileSystem().newWatchService();
+        // write() and most editors replace the file, which shows up as a create
+        path.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.watcher = new Thread(() -> this.watch(service, path.getFileName()), "csv-watch");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    /**
+     * stop the thread started by startWatching()
+     */
+    public synchronized void stopWatching() {
+        if (this.watcher != null) {
+            this.watcher.interrupt();
+            this.watcher = null;
+        }
+    }
+
+    private void watch(WatchService service, Path name) {
+        try (service) {
+            for (;;) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> e : key.pollEvents()) {
+                    if (e.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(e.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    try {
+                        this.refresh();
+                    } catch (IOException | RuntimeException e) {
+                        // probably caught the other program halfway through
+                        // writing, the old data is kept and the next event
+                        // tries again
+                    }
+                }
+            }
+        } catch (InterruptedException | IOException | ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * path of the journal that belongs to the csv file
+     * @return the journal path
+     */
+    public String journalFile() {
+        return this.file + ".journal";
+    }
+
+    /**
+     * Turn journal mode on or off. In journal mode commit() appends one record
+     * per change to the journal, and the csv file is only rewritten every
+     * compactEvery records
+     * @param journaled true to use the journal
+     * @throws IOException
+     */
+    public synchronized void setJournaled(boolean journaled) throws IOException {
+        if (!journaled && this.journaled) {
+            // fold the journal back into the csv file before leaving journal mode
+            this.write();
+        }
+        this.journaled = journaled;
+    }
+
+    /**
+     * set how many journal records are allowed before the journal is compacted
+     * into the csv file
+     * @param compactEvery number of records
+     */
+    public void setCompactEvery(int compactEvery) {
+        this.compactEvery = compactEvery;
+    }
+
+    /**
+     * Save a changed (or new) line. In journal mode the line is appended to the
+     * journal, otherwise the whole file is written
+     * @param line the line that was changed
+     * @throws IOException
+     */
+    public void commit(Line line) throws IOException {
+        if (this.flushWindow > 0) {
+            // the line marked itself dirty when it was changed
+            if (this.waitForFlush) {
+                this.awaitFlush();
+            }
+            return;
+        }
+        synchronized (this) {
+            if (!this.journaled) {
+                this.write();
+                return;
+            }
+            this.appendJournal("U," + line.toCSV());
+        }
+    }
+
+    /**
+     * Save the removal of a line. In journal mode the removal is appended to
+     * the journal, otherwise the whole file is written
+     * @param id id of the user that was removed
+     * @throws IOException
+     */
+    public void commitRemove(int id) throws IOException {
+        if (this.flushWindow > 0) {
+            if (this.waitForFlush) {
+                this.awaitFlush();
+            }
+            return;
+        }
+        synchronized (this) {
+            if (!this.journaled) {
+                this.write();
+                return;
+            }
+            this.appendJournal("R," + id);
+        }
+    }
+
+    private void appendJournal(String record) throws IOException {
+        this.writeJournal(record);
+        this.journalWriter.flush();
+        this.compactJournal(false);
+    }
+
+    private void writeJournal(String record) throws IOException {
+        if (this.journalWriter == null) {
+            this.journalStream = new FileOutputStream(this.journalFile(), true);
+            this.journalWriter = new BufferedWriter(new OutputStreamWriter(this.journalStream));
+        }
+        this.journalWriter.write(record);
+        this.journalWriter.write('\n');
+        this.journalRecords++;
+    }
+
+    private void compactJournal(boolean force) throws IOException {
+        // compact once the journal gets long
+        if (this.journalRecords >= this.compactEvery) {
+            this.writeFile(force);
+        }
+    }
+
+    /**
+     * Turn write-behind on or off. With write-behind on, commit() and
+     * commitRemove() do not write anything: lines mark themselves dirty when
+     * they are changed, and a background thread waits flushWindow
+     * milliseconds after the first change so that the changes that come in
+     * meanwhile are saved together (one file write, or one journal flush in
+     * journal mode), and makes sure they reached the disk. Turning it off
+     * saves whatever is still waiting
+     * @param flushWindow milliseconds to collect changes for, 0 to turn write-behind off
+     * @throws IOException if the waiting changes could not be saved
+     */
+    public void setWriteBehind(long flushWindow) throws IOException {
+        Thread stopped = null;
+        synchronized (this.dirtyLock) {
+            this.flushWindow = flushWindow;
+            if (flushWindow > 0 && this.flusher == null) {
+                this.flusher = new Thread(this::flushLoop, "csv-flush");
+                this.flusher.setDaemon(true);
+                this.flusher.start();
+                // do not lose the last changes when the program exits
+                this.shutdownFlush = new Thread(() -> {
+                    try {
+                        this.flush();
+                    } catch (IOException ignored) {}
+                });
+                Runtime.getRuntime().addShutdownHook(this.shutdownFlush);
+            } else if (flushWindow <= 0 && this.flusher != null) {
+                stopped = this.flusher;
+                this.flusher = null;
+                Runtime.getRuntime().removeShutdownHook(this.shutdownFlush);
+                this.shutdownFlush = null;
+                this.dirtyLock.notifyAll();
+            }
+        }
+        if (stopped != null) {
+            try {
+                stopped.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.flush();
+        }
+    }
+
+    /**
+     * With write-behind on, make commit() wait until the change is on disk.
+     * Callers that change lines at the same time still share one write
+     * @param waitForFlush true to wait
+     */
+    public void setWaitForFlush(boolean waitForFlush) {
+        this.waitForFlush = waitForFlush;
+    }
+
+    /**
+     * Called by a line (of this parser) right before it changes
+     * @param line the line that is about to change
+     * @param names true if the id or names may change
+     */
+    void changing(Line line, boolean names) {
+        this.untrack(line, names);
+    }
+
+    /**
+     * Called by a line (of this parser) every time it changes
+     * @param line the line that changed
+     * @param names true if the id or names may have changed
+     */
+    void changed(Line line, boolean names) {
+        this.track(line, names);
+        if (this.flushWindow > 0) {
+            this.markDirty(line.intId(), line);
+        }
+    }
+
+    /**
+     * Called by a line (of this parser) after a balance was set or an
+     * account was closed
+     * @param line the line that changed
+     * @param type which balance
+     * @param before the balance before, in cents
+     */
+    void balanceChanged(Line line, Line.AccountType type, long before) {
+        Ledger ledger = this.ledger;
+        if (ledger == null) {
+            return;
+        }
+        long after = type == Line.AccountType.CHECKING ? line.centsOfChecking() : line.centsOfSavings();
+        // a closed account has no money in it, so opening one is not a
+        // change and closing one takes out whatever was left
+        if (before == Money.CLOSED) {
+            before = 0;
+        }
+        if (after == Money.CLOSED) {
+            after = 0;
+        }
+        if (after != before) {
+            ledger.record(line.intId(), type, after - before, after);
+        }
+    }
+
+    /**
+     * Record every balance change from now on in a ledger (see Ledger)
+     * @param ledger the ledger, or null to stop recording
+     */
+    public void setLedger(Ledger ledger) {
+        this.ledger = ledger;
+    }
+
+    /**
+     * Called by a line (of this parser) to change its id. The line is moved
+     * to the new id in the index and the id allocator, and the old id is
+     * saved as removed
+     * @param line the line
+     * @param id the new id
+     * @throws IllegalArgumentException if the new id is taken
+     * @throws UncheckedIOException if the removal could not be journaled
+     */
+    void renameLine(Line line, int id) {
+        ShardedCSVParser parent = this.parent;
+        if (parent != null) {
+            // the new id may belong to another shard
+            parent.renameLine(line, id);
+            return;
+        }
+        int before = line.intId();
+        this.moveLine(line, id);
+        try {
+            this.saveRemoved(before);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * change the id of a line of this parser, without saving anything
+     * @param line the line
+     * @param id the new id
+     */
+    void moveLine(Line line, int id) {
+        int before = line.intId();
+        this.structure.writeLock().lock();
+        try {
+            // ids outside 100000-999999 are not in the allocator, so ask the index too
+            if (this.ids.contains(id) || (this.indexed && this.index.get(id) != null)) {
+                throw new IllegalArgumentException("User ID already exists");
+            }
+            this.untrack(line, true);
+            if (this.indexed) {
+                this.index.remove(before);
+            }
+            this.ids.remove(before);
+            line.id(id);
+            if (this.indexed) {
+                this.index.put(id, line);
+            }
+            this.ids.add(id);
+            this.track(line, true);
+        } finally {
+            this.structure.writeLock().unlock();
+        }
+        if (this.flushWindow > 0) {
+            this.markDirty(id, line);
+        }
+    }
+
+    /**
+     * save that the line with an id is gone, after it was renamed
+     * @param id the old id
+     * @throws IOException
+     */
+    void saveRemoved(int id) throws IOException {
+        // the row with the old id has to go from the file as well. A full
+        // write happens on the next commit() anyway, the journal and
+        // write-behind only save what they are told about
+        if (this.flushWindow > 0) {
+            this.markDirty(id, null);
+        } else if (this.journaled) {
+            synchronized (this) {
+                this.appendJournal("R," + id);
+            }
+        }
+    }
+
+    private void track(Line line, boolean names) {
+        // count the line in the totals and indexes that are kept
+        Aggregates aggregates = this.aggregates;
+        if (aggregates != null) {
+            aggregates.add(line);
+        }
+        NameIndex nameIndex = this.nameIndex;
+        if (names && nameIndex != null) {
+            nameIndex.add(line);
+        }
+    }
+
+    private void untrack(Line line, boolean names) {
+        Aggregates aggregates = this.aggregates;
+        if (aggregates != null) {
+            aggregates.remove(line);
+        }
+        NameIndex nameIndex = this.nameIndex;
+        if (names && nameIndex != null) {
+            nameIndex.remove(line);
+        }
+    }
+
+    private void markDirty(int id, Line line) {
+        synchronized (this.dirtyLock) {
+            this.dirty.put(id, line);
+            this.lastChange++;
+            this.dirtyLock.notifyAll();
+        }
+    }
+
+    /**
+     * Save every dirty line now (write-behind mode), instead of waiting for
+     * the background thread
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        LinkedHashMap<Integer, Line> batch;
+        long change;
+        synchronized (this.dirtyLock) {
+            if (this.dirty.isEmpty()) {
+                return;
+            }
+            batch = this.dirty;
+            change = this.lastChange;
+            this.dirty = new LinkedHashMap<>();
+        }
+
+        try {
+            synchronized (this) {
+                if (this.journaled) {
+                    for (Map.Entry<Integer, Line> entry : batch.entrySet()) {
+                        this.writeJournal(entry.getValue() == null
+                                ? "R," + entry.getKey()
+                                : "U," + entry.getValue().toCSV());
+                    }
+                    this.journalWriter.flush();
+                    this.journalStream.getFD().sync();
+                    this.compactJournal(true);
+                } else {
+                    this.write(true);
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this.dirtyLock) {
+                // keep the lines dirty (unless they changed again meanwhile)
+                // so the next flush tries again
+                batch.putAll(this.dirty);
+                this.dirty = batch;
+                this.flushError = e;
+                this.dirtyLock.notifyAll();
+            }
+            throw e;
+        }
+
+        synchronized (this.dirtyLock) {
+            this.flushedChange = Math.max(this.flushedChange, change);
+            this.flushError = null;
+            this.dirtyLock.notifyAll();
+        }
+    }
+
+    /**
+     * wait until every change made so far is saved
+     * @throws IOException if saving failed
+     */
+    public void awaitFlush() throws IOException {
+        synchronized (this.dirtyLock) {
+            long change = this.lastChange;
+            while (this.flushedChange < change) {
+                if (this.flushError != null) {
+                    throw this.flushError;
+                }
+                if (this.flusher == null) {
+                    break;
+                }
+                try {
+                    this.dirtyLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the flush");
+                }
+            }
+            if (this.flushedChange >= change) {
+                return;
+            }
+        }
+        // nothing is flushing in the background, do it here
+        this.flush();
+    }
+
+    private void flushLoop() {
+        for (;;) {
+            long window;
+            synchronized (this.dirtyLock) {
+                while (this.dirty.isEmpty() && this.flusher == Thread.currentThread()) {
+                    try {
+                        this.dirtyLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (this.flusher != Thread.currentThread()) {
+                    return;
+                }
+                window = this.flushWindow;
+            }
+            try {
+                // let more changes come in so they are written together, but
+                // stop as soon as write-behind is turned off (setWriteBehind
+                // saves what is left itself)
+                long deadline = System.nanoTime() + window * 1_000_000;
+                synchronized (this.dirtyLock) {
+                    long left;
+                    while (this.flusher == Thread.currentThread() && (left = deadline - System.nanoTime()) > 0) {
+                        this.dirtyLock.wait(left / 1_000_000, (int) (left % 1_000_000));
+                    }
+                    if (this.flusher != Thread.currentThread()) {
+                        return;
+                    }
+                }
+                this.flush();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                // flush() kept the lines dirty and told the waiting callers,
+                // try again after the next window
+            }
+        }
+    }
+
+    private int replayJournal(ArrayList<Line> lines, IdIndex index) throws IOException {
+        File journal = new File(this.journalFile());
+        if (!journal.exists()) {
+            return 0;
+        }
+        byte[] bytes = Files.readAllBytes(journal.toPath());
+        int records = 0;
+        int lineNumber = 0;
+        int start = 0;
+        while (start < bytes.length) {
+            int end = start;
+            while (end < bytes.length && bytes[end] != '\n') {
+                end++;
+            }
+            lineNumber++;
+            String record = new String(bytes, start, end - start);
+            // the last record can be torn: the program stopped while it was
+            // appended (a record without its newline was never finished)
+            boolean last = end >= bytes.length - 1;
+            boolean applied = end < bytes.length && applyJournal(record, lines, index);
+            if (!applied) {
+                if (!last) {
+                    throw new IOException("Malformed journal record at line " + lineNumber + " of " + journal);
+                }
+                // the change was never confirmed, cut it off so the next
+                // record does not get appended to the end of it
+                try (FileChannel channel = FileChannel.open(journal.toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(start);
+                }
+                break;
+            }
+            records++;
+            start = end + 1;
+        }
+        return records;
+    }
+
+    private static boolean applyJournal(String record, ArrayList<Line> lines, IdIndex index) {
+        // U,<csv row> replaces or adds a line, R,<id> removes one
+        try {
+            if (record.startsWith("U,")) {
+                String[] fields = record.substring(2).split(",");
+                if (fields.length != Line.FIELDS) {
+                    return false;
+                }
+                Line l = new Line(fields);
+                Line existing = index.get(l.intId());
+                if (existing != null) {
+                    existing.copyFrom(l);
+                } else {
+                    l.position = lines.size();
+                    lines.add(l);
+                    index.put(l.intId(), l);
+                }
+                return true;
+            }
+            if (record.startsWith("R,")) {
+                Line removed = index.remove(Integer.parseInt(record.substring(2)));
+                if (removed != null) {
+                    // update() squeezes the null out once the journal is replayed
+                    lines.set(removed.position, null);
+                }
+                return true;
+            }
+            return false;
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            // not a number, or an id the index can not hold
+            return false;
+        }
+    }
+
+    /**
+     * Turn the id index on or off. With the index off, getLine and removeLine
+     * fall back to scanning every line (useful for comparing the two)
+     * @param indexed true to use the index
+     */
+    public void setIndexed(boolean indexed) {
+        this.structure.writeLock().lock();
+        try {
+            if (indexed && !this.indexed) {
+                // the index is not maintained while it is off, so rebuild it
+                this.index.clear();
+                for (Line line : this.lines) {
+                    if (line != null) {
+                        this.index.put(line.intId(), line);
+                    }
+                }
+            }
+            this.indexed = indexed;
+        } finally {
+            this.structure.writeLock().unlock();
         }
     }
 
@@ -55,14 +877,145 @@ public class CSVParser {
      * @throws IOException
      */
     public Line getLine(int id) throws IOException {
-        // iterate through all of this.lines and find and return the line with the id
-        // (the first string is the id)
-        for (Line line : this.lines) {
-            if (line.getArray()[0].equals(Integer.toString(id))) {
+        long start = System.nanoTime();
+        this.structure.readLock().lock();
+        try {
+            if (this.indexed) {
+                Line line = this.index.get(id);
+                if (line == null) {
+                    Events.LookupMiss.emit(id);
+                    throw new IOException("No such id was found");
+                }
                 return line;
             }
+
+            // iterate through all of this.lines and find and return the line with the id
+            // (the first string is the id)
+            for (Line line : this.lines) {
+                if (line != null && line.intId() == id) {
+                    return line;
+                }
+            }
+            Events.LookupMiss.emit(id);
+            throw new IOException("No such id was found");
+        } finally {
+            this.structure.readLock().unlock();
+            Metrics.Op.CSV_GET_LINE.record(start);
+        }
+    }
+
+    /**
+     * the locks that keep changes to one user apart, shared by every
+     * ATMService on this parser
+     * @return the locks
+     */
+    public StripedLock userLocks() {
+        return this.userLocks;
+    }
+
+    /**
+     * use another set of user locks (AccountStore keeps the same ones when it
+     * loads the data again), call before any ATMService is made on this parser
+     * @param userLocks the locks
+     */
+    void shareUserLocks(StripedLock userLocks) {
+        this.userLocks = userLocks;
+    }
+
+    /**
+     * the ids that are taken. Adding a line takes its id and removing it
+     * gives the id back, an id can also be taken before its line is added
+     * (and then has to be given back if the line is never added)
+     * @return the id allocator
+     */
+    public IdAllocator ids() {
+        this.structure.readLock().lock();
+        try {
+            return this.ids;
+        } finally {
+            this.structure.readLock().unlock();
+        }
+    }
+
+    /**
+     * a copy of the list of lines (the lines themselves are not copied), for
+     * going through every user while other threads add and remove users
+     * @return the lines, in file order
+     */
+    public List<Line> lines() {
+        this.structure.readLock().lock();
+        try {
+            ArrayList<Line> lines = new ArrayList<>(this.lines.size() - this.removedLines);
+            for (Line line : this.lines) {
+                if (line != null) {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        } finally {
+            this.structure.readLock().unlock();
+        }
+    }
+
+    /**
+     * running totals over every line (see Aggregates). They are only kept
+     * from the first call on, which goes through every line, so make that
+     * call before other threads start changing lines
+     * @return the totals
+     */
+    public synchronized Aggregates aggregates() {
+        if (this.aggregates == null) {
+            this.attach(new Aggregates());
+        }
+        return this.aggregates;
+    }
+
+    /**
+     * start keeping totals in the given Aggregates (which may be shared with
+     * other parsers)
+     * @param aggregates where to keep the totals
+     */
+    void attach(Aggregates aggregates) {
+        this.structure.writeLock().lock();
+        try {
+            for (Line line : this.lines) {
+                if (line != null) {
+                    aggregates.add(line);
+                }
+            }
+            this.aggregates = aggregates;
+        } finally {
+            this.structure.writeLock().unlock();
+        }
+    }
+
+    /**
+     * first and last name lookups over every line (see NameIndex). The index
+     * is built on the first call, so make that call before other threads
+     * start changing lines
+     * @return the index
+     */
+    public synchronized NameIndex nameIndex() {
+        if (this.nameIndex == null) {
+            this.attach(new NameIndex());
+        }
+        return this.nameIndex;
+    }
+
+    /**
+     * start keeping the name index in the given NameIndex (which may be
+     * shared with other parsers)
+     * @param nameIndex where to keep the index
+     */
+    void attach(NameIndex nameIndex) {
+        this.structure.writeLock().lock();
+        try {
+            this.compactLines();
+            nameIndex.addAll(this.lines);
+            this.nameIndex = nameIndex;
+        } finally {
+            this.structure.writeLock().unlock();
         }
-        throw new IOException("No such id was found");
     }
 
     /**
@@ -71,8 +1024,23 @@ public class CSVParser {
      * @throws IOException
      */
     public void addLine(Line line) throws IOException {
-        // add a line to this.lines and return the line
-        this.lines.add(line);
+        this.structure.writeLock().lock();
+        try {
+            // add a line to this.lines and return the line
+            line.position = this.lines.size();
+            this.lines.add(line);
+            if (this.indexed) {
+                this.index.put(line.intId(), line);
+            }
+            this.ids.add(line.intId());
+            line.owner = this;
+        } finally {
+            this.structure.writeLock().unlock();
+        }
+        this.track(line, true);
+        if (this.flushWindow > 0) {
+            this.markDirty(line.intId(), line);
+        }
     }
 
     /**
@@ -82,14 +1050,136 @@ public class CSVParser {
      * @throws IOException
      */
     public Line removeLine(int id) throws IOException {
-        // iterate through all of this.lines and find and remove the line with the id
-        // (the first string is the id)
-        for (int i = 0; i < this.lines.size(); i++) {
-            if (this.lines.get(i).getArray()[0].equals(Integer.toString(id))) {
-                return this.lines.remove(i);
+        Line removed = this.removeFromLines(id);
+        this.ids.remove(id);
+        removed.owner = null;
+        this.untrack(removed, true);
+        if (this.flushWindow > 0) {
+            this.markDirty(id, null);
+        }
+        return removed;
+    }
+
+    private Line removeFromLines(int id) throws IOException {
+        this.structure.writeLock().lock();
+        try {
+            if (this.indexed) {
+                Line line = this.index.remove(id);
+                if (line == null) {
+                    throw new IOException("No such id was found");
+                }
+                this.clearSlot(line);
+                return line;
+            }
+
+            // iterate through all of this.lines and find and remove the line with the id
+            // (the first string is the id)
+            for (Line line : this.lines) {
+                if (line != null && line.intId() == id) {
+                    this.clearSlot(line);
+                    return line;
+                }
+            }
+            throw new IOException("No such id was found");
+        } finally {
+            this.structure.writeLock().unlock();
+        }
+    }
+
+    private void clearSlot(Line line) {
+        // leave a null instead of shifting every line after it down, and only
+        // squeeze the nulls out once they are half of the list (so removing
+        // stays O(1) on average)
+        this.lines.set(line.position, null);
+        line.position = -1;
+        if (++this.removedLines > this.lines.size() / 2) {
+            this.compactLines();
+        }
+    }
+
+    private void compactLines() {
+        if (this.removedLines > 0) {
+            compact(this.lines);
+            this.removedLines = 0;
+        }
+    }
+
+    /**
+     * take the nulls out of a list of lines, keeping the order, and number
+     * the lines again
+     * @param lines the lines
+     */
+    private static void compact(ArrayList<Line> lines) {
+        int to = 0;
+        for (Line line : lines) {
+            if (line != null) {
+                line.position = to;
+                lines.set(to++, line);
             }
         }
-        throw new IOException("No such id was found");
+        lines.subList(to, lines.size()).clear();
+    }
+
+    /**
+     * Stream the rows of a csv file without loading it into a parser. Rows
+     * are read as the stream is consumed and only the current one is kept,
+     * so this works on files that do not fit in memory. The journal is not
+     * applied. Close the stream (try-with-resources) to close the file
+     * @param fileName relative or absolute path to the csv file + file name
+     * @return the rows in file order
+     * @throws IOException
+     */
+    public static Stream<Line> stream(String fileName) throws IOException {
+        RowIterator rows = new RowIterator(fileName);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        rows.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    /**
+     * find the first row of a csv file that matches, reading no further than it
+     * @param fileName relative or absolute path to the csv file + file name
+     * @param predicate what to look for
+     * @return the first matching row, or null if there is none
+     * @throws IOException
+     */
+    public static Line find(String fileName, Predicate<Line> predicate) throws IOException {
+        try (Stream<Line> rows = stream(fileName)) {
+            return rows.filter(predicate).findFirst().orElse(null);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * check if any row of a csv file matches, reading no further than the first match
+     * @param fileName relative or absolute path to the csv file + file name
+     * @param predicate what to look for
+     * @return true if a row matches
+     * @throws IOException
+     */
+    public static boolean anyMatch(String fileName, Predicate<Line> predicate) throws IOException {
+        return find(fileName, predicate) != null;
+    }
+
+    /**
+     * count the rows of a csv file that match
+     * @param fileName relative or absolute path to the csv file + file name
+     * @param predicate what to count
+     * @return number of matching rows
+     * @throws IOException
+     */
+    public static long count(String fileName, Predicate<Line> predicate) throws IOException {
+        try (Stream<Line> rows = stream(fileName)) {
+            return rows.filter(predicate).count();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     /**
@@ -97,12 +1187,69 @@ public class CSVParser {
      * @throws IOException
      */
     public void write() throws IOException {
-        // write this.lines to data.csv
-        BufferedWriter bw = new BufferedWriter(new FileWriter(this.file));
-        for (Line line : this.lines) {
-            bw.write(String.join(",", line.getArray()));
-            bw.newLine();
+        this.write(false);
+    }
+
+    private synchronized void write(boolean force) throws IOException {
+        long start = System.nanoTime();
+        Events.CsvFlush event = new Events.CsvFlush();
+        event.begin();
+        try {
+            this.writeFile(force);
+        } finally {
+            Metrics.Op.CSV_WRITE.record(start);
+            if (event.shouldCommit()) {
+                event.file = this.file;
+                event.rows = this.lines.size() - this.removedLines;
+                event.bytes = new File(this.file).length();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * replace the file with this.lines (subclasses that keep their data in
+     * some other file override this)
+     * @param force true to make sure the new file is on disk
+     * @throws IOException
+     */
+    void writeFile(boolean force) throws IOException {
+        // write this.lines to a temporary file and then move it over data.csv,
+        // so a mapped data.csv is never truncated while lines still read from it
+        File temp = new File(this.file + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out));
+        this.structure.readLock().lock();
+        try {
+            for (Line line : this.lines) {
+                if (line != null) {
+                    bw.write(line.toCSV());
+                    bw.newLine();
+                }
+            }
+        } finally {
+            this.structure.readLock().unlock();
+        }
+        bw.flush();
+        if (force) {
+            // make sure the new file is on disk before it replaces the old one
+            out.getFD().sync();
         }
         bw.close();
+        Files.move(temp.toPath(), Path.of(this.file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // everything in the journal is in the csv file now
+        if (this.journalWriter != null) {
+            this.journalWriter.close();
+            this.journalWriter = null;
+            this.journalStream = null;
+        }
+        new File(this.journalFile()).delete();
+        this.journalRecords = 0;
+
+        // our own write is not a change that needs to be read back
+        File data = new File(this.file);
+        this.loadedSize = data.length();
+        this.loadedModified = data.lastModified();
     }
 }
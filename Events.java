@@ -0,0 +1,150 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for the storage and ATM operations. They are
+ * all off by default, atm.jfc turns them on:
+ * <br>
+ * java -XX:StartFlightRecording:filename=atm.jfr,settings=atm.jfc Main
+ * <br>
+ * (use settings=default,settings=atm.jfc to record the JVM events as well).
+ * When they are off, begin()/commit() do nothing.
+ */
+public class Events {
+    @Name("atm.CsvLoad")
+    @Label("CSV Load")
+    @Category({"ATM", "Storage"})
+    @Description("CSVParser.update() reading the data file")
+    @Enabled(false)
+    public static class CsvLoad extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Rows")
+        int rows;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("atm.CsvFlush")
+    @Label("CSV Flush")
+    @Category({"ATM", "Storage"})
+    @Description("CSVParser.write() writing the data file")
+    @Enabled(false)
+    public static class CsvFlush extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Rows")
+        int rows;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("atm.LookupMiss")
+    @Label("Lookup Miss")
+    @Category({"ATM", "Storage"})
+    @Description("CSVParser.getLine() with an id that does not exist")
+    @Enabled(false)
+    public static class LookupMiss extends Event {
+        @Label("User ID")
+        int userId;
+
+        /**
+         * record a lookup of an id that does not exist
+         * @param userId the id
+         */
+        static void emit(int userId) {
+            LookupMiss event = new LookupMiss();
+            if (event.shouldCommit()) {
+                event.userId = userId;
+                event.commit();
+            }
+        }
+    }
+
+    @Name("atm.Transaction")
+    @Label("ATM Transaction")
+    @Category("ATM")
+    @Description("One ATMService operation and how it ended")
+    @Enabled(false)
+    public static class Transaction extends Event {
+        @Label("User ID")
+        int userId;
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Account")
+        String account;
+
+        @Label("Amount (cents)")
+        long amount;
+
+        @Label("Outcome")
+        String outcome = "OK";
+
+        /**
+         * start timing an operation
+         * @param userId the user
+         * @param op the operation
+         * @return the event, commit() it when the operation is done
+         */
+        static Transaction begin(int userId, Metrics.Op op) {
+            Transaction event = new Transaction();
+            event.userId = userId;
+            event.operation = op.name();
+            event.begin();
+            return event;
+        }
+
+        /**
+         * start timing an operation on an account
+         * @param userId the user
+         * @param op the operation
+         * @param type the account
+         * @param amount the amount in cents
+         * @return the event, commit() it when the operation is done
+         */
+        static Transaction begin(int userId, Metrics.Op op, Line.AccountType type, long amount) {
+            Transaction event = begin(userId, op);
+            event.account = type == null ? null : type.name();
+            event.amount = amount;
+            return event;
+        }
+
+        /**
+         * mark the operation as refused
+         * @param e why it was refused
+         */
+        void failed(UserError e) {
+            outcome = e.errorType.name();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Keeps track of which 6 digit user ids are taken, one bit per id (about
+ * 110 KB for all of them). Checking an id is one bit lookup and finding a
+ * free one skips over taken ids 64 at a time. Ids outside 100000-999999 are
+ * never taken as far as the allocator is concerned.
+ */
+public class IdAllocator {
+    static final int MIN_ID = 100000;
+    static final int MAX_ID = 999999;
+    static final int SIZE = MAX_ID - MIN_ID + 1;
+
+    private final BitSet taken = new BitSet(SIZE);
+
+    /**
+     * check if an id is taken
+     * @param id user id
+     * @return true if the id is taken
+     */
+    public synchronized boolean contains(int id) {
+        return inRange(id) && taken.get(id - MIN_ID);
+    }
+
+    /**
+     * take an id
+     * @param id user id
+     * @return true if the id was free (and is taken now), false if it was
+     * already taken or is not 6 digits
+     */
+    public synchronized boolean add(int id) {
+        if (!inRange(id) || taken.get(id - MIN_ID)) {
+            return false;
+        }
+        taken.set(id - MIN_ID);
+        return true;
+    }
+
+    /**
+     * give an id back
+     * @param id user id
+     */
+    public synchronized void remove(int id) {
+        if (inRange(id)) {
+            taken.clear(id - MIN_ID);
+        }
+    }
+
+    /**
+     * take every id another allocator has taken as well
+     * @param other the other allocator
+     */
+    public void addAll(IdAllocator other) {
+        BitSet copy;
+        synchronized (other) {
+            copy = (BitSet) other.taken.clone();
+        }
+        synchronized (this) {
+            taken.or(copy);
+        }
+    }
+
+    /**
+     * first free id at or after an id (without taking it)
+     * @param from where to start looking
+     * @return the free id, or -1 if every id from there on is taken
+     */
+    public synchronized int nextFree(int from) {
+        int bit = taken.nextClearBit(Math.max(0, from - MIN_ID));
+        return bit < SIZE ? bit + MIN_ID : -1;
+    }
+
+    /**
+     * a free id picked at random (without taking it)
+     * @param random where to get the random number from
+     * @return the free id, or -1 if every id is taken
+     */
+    public synchronized int randomFree(Random random) {
+        int id = nextFree(MIN_ID + random.nextInt(SIZE));
+        // nothing free after the random start, start over from the beginning
+        return id >= 0 ? id : nextFree(MIN_ID);
+    }
+
+    /**
+     * number of ids that are taken
+     * @return number of taken ids
+     */
+    public synchronized int size() {
+        return taken.cardinality();
+    }
+
+    /**
+     * spread the bits of an id, for hashing ids that are mostly sequential
+     * (index slots, lock stripes, shards, workers)
+     * @param id user id
+     * @return the mixed bits, take floorMod or mask off the low bits
+     */
+    static int spread(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean inRange(int id) {
+        return id >= MIN_ID && id <= MAX_ID;
+    }
+}
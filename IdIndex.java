@@ -0,0 +1,176 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.util.Arrays;
+
+/**
+ * Hash index from user id to Line, used by CSVParser. The keys are stored
+ * as plain ints (open addressing, linear probing) so a lookup never boxes
+ * or allocates.
+ */
+public class IdIndex {
+    // 0 is never a valid user id, so it marks an empty slot
+    private static final int EMPTY = 0;
+
+    private int[] keys;
+    private Line[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * Create an empty index
+     * @param expected number of ids the index should hold without resizing
+     */
+    public IdIndex(int expected) {
+        int capacity = 16;
+        // keep the table at most half full
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        this.keys = new int[capacity];
+        this.values = new Line[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * get the line stored under an id
+     * @param id user id
+     * @return the line, or null if the id is not in the index
+     */
+    public Line get(int id) {
+        int i = slot(id);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == id) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * add or replace the line stored under an id
+     * @param id user id
+     * @param line the line
+     * @return the line previously stored under the id, or null
+     */
+    public Line put(int id, Line line) {
+        if (id == EMPTY) {
+            throw new IllegalArgumentException("0 is not a valid id");
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length << 1);
+        }
+        int i = slot(id);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == id) {
+                Line old = values[i];
+                values[i] = line;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        values[i] = line;
+        size++;
+        return null;
+    }
+
+    /**
+     * remove an id from the index
+     * @param id user id
+     * @return the line that was removed, or null if the id was not in the index
+     */
+    public Line remove(int id) {
+        int i = slot(id);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == id) {
+                Line old = values[i];
+                shiftBack(i);
+                size--;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * check if an id is in the index
+     * @param id user id
+     * @return true if the id is in the index
+     */
+    public boolean contains(int id) {
+        return get(id) != null;
+    }
+
+    /**
+     * number of ids in the index
+     * @return the number of ids
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * remove everything from the index
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private int slot(int id) {
+        return IdAllocator.spread(id) & mask;
+    }
+
+    private void shiftBack(int hole) {
+        // close the gap left by a removed key so probing still finds
+        // every key that was placed after it
+        int i = hole;
+        for (;;) {
+            i = (i + 1) & mask;
+            if (keys[i] == EMPTY) {
+                break;
+            }
+            int home = slot(keys[i]);
+            // move the key back if its home slot is not between the hole and i
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        keys[hole] = EMPTY;
+        values[hole] = null;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Line[] oldValues = values;
+        keys = new int[capacity];
+        values = new Line[capacity];
+        mask = capacity - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
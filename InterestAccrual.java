@@ -0,0 +1,147 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pays interest into every open savings account in one go. The accounts are
+ * gone through in parallel, the interest is paid with the same rules and
+ * under the same user locks as the ATM (see ATMService.payInterest and
+ * CSVParser.userLocks), and data.csv is written once at the end. A dry run
+ * only adds up what would be paid.
+ * <br>
+ * Usage: java InterestAccrual rate [rounding] [--dry-run] [data.csv]
+ * <br>
+ * where rate is for one period (0.0025 for 0.25%) and rounding is a
+ * RoundingMode (default HALF_EVEN), e.g. java InterestAccrual 0.0025 DOWN --dry-run
+ */
+public class InterestAccrual {
+    /**
+     * What happened (or would happen) when interest was paid
+     */
+    public static class Report {
+        public boolean dryRun;
+        // open savings accounts that were gone through
+        public long accounts;
+        // total interest in cents
+        public long paid;
+        // accounts whose interest rounded to 0
+        public long zero;
+        // accounts that could not be paid (closed meanwhile, balance too large)
+        public long failed;
+        public long nanos;
+
+        @Override
+        public String toString() {
+            return String.format("%s%d accounts, %s interest, %d rounded to 0, %d failed in %.3f s",
+                    dryRun ? "(dry run) " : "", accounts, Money.format(paid), zero, failed, nanos / 1e9);
+        }
+    }
+
+    private final CSVParser parser;
+    private final BigDecimal rate;
+    private final RoundingMode rounding;
+
+    /**
+     * Create an interest run
+     * @param parser the accounts to pay interest into
+     * @param rate interest for one period, e.g. 0.0025 for 0.25%
+     * @param rounding how to round each account's interest to whole cents
+     */
+    public InterestAccrual(CSVParser parser, BigDecimal rate, RoundingMode rounding) {
+        this.parser = parser;
+        this.rate = rate;
+        this.rounding = rounding;
+    }
+
+    /**
+     * Pay interest into every open savings account and write the accounts once
+     * @param dryRun true to only work out the totals, without changing anything
+     * @return the totals and how long it took
+     * @throws IOException if the accounts could not be written
+     */
+    public Report run(boolean dryRun) throws IOException {
+        long start = System.nanoTime();
+        // the service does not save, everything is written once at the end
+        ATMService service = new ATMService(parser, false);
+        LongAdder accounts = new LongAdder();
+        LongAdder paid = new LongAdder();
+        LongAdder zero = new LongAdder();
+        LongAdder failed = new LongAdder();
+
+        List<Line> lines = parser.lines();
+        lines.parallelStream().filter(Line::isSavings).forEach(line -> {
+            accounts.increment();
+            long interest;
+            try {
+                interest = dryRun
+                        ? Money.multiply(line.centsOfSavings(), rate, rounding)
+                        : service.payInterest(line.intId(), Line.AccountType.SAVINGS, rate, rounding);
+            } catch (UserError | ArithmeticException e) {
+                failed.increment();
+                return;
+            }
+            paid.add(interest);
+            if (interest == 0) {
+                zero.increment();
+            }
+        });
+
+        if (!dryRun) {
+            parser.write();
+        }
+
+        Report report = new Report();
+        report.dryRun = dryRun;
+        report.accounts = accounts.sum();
+        report.paid = paid.sum();
+        report.zero = zero.sum();
+        report.failed = failed.sum();
+        report.nanos = System.nanoTime() - start;
+        return report;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java InterestAccrual rate [rounding] [--dry-run] [data.csv]");
+            return;
+        }
+        BigDecimal rate = new BigDecimal(args[0]);
+        RoundingMode rounding = RoundingMode.HALF_EVEN;
+        boolean dryRun = false;
+        String file = ATM.CSV_DIRECTORY;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--dry-run")) {
+                dryRun = true;
+            } else if (args[i].endsWith(".csv")) {
+                file = args[i];
+            } else {
+                rounding = RoundingMode.valueOf(args[i].toUpperCase());
+            }
+        }
+        try {
+            Report report = new InterestAccrual(new CSVParser(file), rate, rounding).run(dryRun);
+            System.out.println(report);
+        } catch (IOException e) {
+            System.out.println("A problem occurred: " + e.getMessage());
+        }
+    }
+}
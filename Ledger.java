@@ -0,0 +1,396 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only history of every balance change. Each change is a fixed size
+ * record, and records are appended to segment files (00000000.ledger,
+ * 00000001.ledger, ...) in a directory, a new segment every
+ * recordsPerSegment records. Records are numbered from 0 across all
+ * segments.
+ * <br>
+ * Every record points back to the previous record of the same user, and the
+ * number of each user's newest record is kept in memory, so a user's last N
+ * changes are read by following N pointers instead of searching the whole
+ * log. When a segment is full, the newest record of every user in it is
+ * saved next to it (00000000.heads, an int id and a long record number per
+ * user), so opening the ledger reads those instead of the full segments and
+ * only has to read the last segment record by record.
+ * <br>
+ * Record layout (big endian):
+ * <br>
+ * 0 int id, 4 byte account (0 checking, 1 savings), 8 long change in cents,
+ * 16 long balance after the change, 24 long time (ms since 1970), 32 long
+ * number of the user's previous record (-1 if none)
+ */
+public class Ledger implements Closeable {
+    static final int RECORD_SIZE = 40;
+    static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 20;
+    // an int id and a long record number
+    static final int HEAD_SIZE = 12;
+
+    /**
+     * One balance change
+     */
+    public static class Entry {
+        // number of the record in the ledger
+        public final long number;
+        public final int id;
+        public final Line.AccountType type;
+        public final long cents;
+        public final long balance;
+        public final long time;
+        final long previous;
+
+        Entry(long number, ByteBuffer record) {
+            this.number = number;
+            this.id = record.getInt(0);
+            this.type = record.get(4) == 0 ? Line.AccountType.CHECKING : Line.AccountType.SAVINGS;
+            this.cents = record.getLong(8);
+            this.balance = record.getLong(16);
+            this.time = record.getLong(24);
+            this.previous = record.getLong(32);
+        }
+
+        @Override
+        public String toString() {
+            return Instant.ofEpochMilli(time) + " " + type + " " + (cents >= 0 ? "+" : "") + Money.format(cents)
+                    + " = " + Money.format(balance);
+        }
+    }
+
+    /**
+     * Part of a user's history, newest first
+     */
+    public static class Page {
+        public final List<Entry> entries;
+        // where the next (older) page starts, -1 if there is none
+        final long next;
+
+        Page(List<Entry> entries, long next) {
+            this.entries = entries;
+            this.next = next;
+        }
+
+        /**
+         * check if there are older changes
+         * @return true if next() would return more
+         */
+        public boolean hasNext() {
+            return next >= 0;
+        }
+    }
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final List<FileChannel> segments = new ArrayList<>();
+    // number of the next record
+    private long records = 0;
+    // newest record of each 6 digit id (-1 if none), and of any other id
+    private final long[] heads = new long[IdAllocator.SIZE];
+    private final Map<Integer, Long> otherHeads = new HashMap<>();
+    private long errors = 0;
+
+    /**
+     * Open a ledger, making the directory if it does not exist
+     * @param directory where the segments are kept
+     * @throws IOException
+     */
+    public Ledger(String directory) throws IOException {
+        this(directory, DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    /**
+     * Open a ledger, making the directory if it does not exist
+     * @param directory where the segments are kept
+     * @param recordsPerSegment records in each segment file
+     * @throws IOException
+     */
+    public Ledger(String directory, int recordsPerSegment) throws IOException {
+        this.directory = Path.of(directory);
+        this.recordsPerSegment = recordsPerSegment;
+        Arrays.fill(this.heads, -1);
+        Files.createDirectories(this.directory);
+
+        // read the segments back to find every user's newest record
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+        for (int segment = 0; Files.exists(segmentFile(segment)); segment++) {
+            FileChannel channel = FileChannel.open(segmentFile(segment), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.segments.add(channel);
+            if (channel.size() == (long) recordsPerSegment * RECORD_SIZE && this.readHeads(segment)) {
+                this.records += recordsPerSegment;
+                continue;
+            }
+            // a record that was only partly written (the program stopped
+            // halfway) is cut off
+            long size = channel.size() - channel.size() % RECORD_SIZE;
+            channel.truncate(size);
+            long position = 0;
+            while (position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                buffer.flip();
+                int whole = read - read % RECORD_SIZE;
+                for (int offset = 0; offset < whole; offset += RECORD_SIZE) {
+                    this.setHead(buffer.getInt(offset), this.records++);
+                }
+                position += whole;
+            }
+        }
+    }
+
+    /**
+     * record a balance change
+     * @param id the user
+     * @param type which account
+     * @param cents the change in cents (negative for money taken out)
+     * @param balance the balance after the change
+     * @throws IOException
+     */
+    public synchronized void append(int id, Line.AccountType type, long cents, long balance) throws IOException {
+        long number = this.records;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putInt(id)
+                .put((byte) (type == Line.AccountType.CHECKING ? 0 : 1))
+                .put(new byte[3])
+                .putLong(cents)
+                .putLong(balance)
+                .putLong(System.currentTimeMillis())
+                .putLong(this.head(id))
+                .flip();
+        FileChannel channel = this.segment(number);
+        while (record.hasRemaining()) {
+            channel.write(record, (number % this.recordsPerSegment) * RECORD_SIZE + record.position());
+        }
+        this.setHead(id, number);
+        this.records++;
+    }
+
+    /**
+     * record a balance change, counting (instead of throwing) a failure to
+     * write it, for callers that can not stop because the history could not
+     * be written
+     * @param id the user
+     * @param type which account
+     * @param cents the change in cents
+     * @param balance the balance after the change
+     */
+    void record(int id, Line.AccountType type, long cents, long balance) {
+        try {
+            this.append(id, type, cents, balance);
+        } catch (IOException e) {
+            synchronized (this) {
+                this.errors++;
+            }
+            System.err.println("Could not write to the ledger: " + e.getMessage());
+        }
+    }
+
+    /**
+     * a user's newest changes
+     * @param id the user
+     * @param n most changes to return
+     * @return the changes, newest first
+     * @throws IOException
+     */
+    public List<Entry> last(int id, int n) throws IOException {
+        long head;
+        synchronized (this) {
+            head = this.head(id);
+        }
+        return this.read(head, n).entries;
+    }
+
+    /**
+     * the first page of a user's changes, for going back through the whole
+     * history with next()
+     * @param id the user
+     * @param n most changes on the page
+     * @return the newest changes, newest first
+     * @throws IOException
+     */
+    public Page page(int id, int n) throws IOException {
+        long head;
+        synchronized (this) {
+            head = this.head(id);
+        }
+        return this.read(head, n);
+    }
+
+    /**
+     * the page after (older than) another page
+     * @param page the page before
+     * @param n most changes on the page
+     * @return the changes, newest first (none if the page before was the last)
+     * @throws IOException
+     */
+    public Page next(Page page, int n) throws IOException {
+        return this.read(page.next, n);
+    }
+
+    /**
+     * number of records in the ledger
+     * @return number of records
+     */
+    public synchronized long size() {
+        return this.records;
+    }
+
+    /**
+     * number of changes that could not be written by record()
+     * @return number of failures
+     */
+    public synchronized long errors() {
+        return this.errors;
+    }
+
+    /**
+     * make sure every record is on disk
+     * @throws IOException
+     */
+    public synchronized void force() throws IOException {
+        for (FileChannel channel : this.segments) {
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel channel : this.segments) {
+            channel.close();
+        }
+        this.segments.clear();
+    }
+
+    private Page read(long from, int n) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        long number = from;
+        while (number >= 0 && entries.size() < n) {
+            FileChannel channel;
+            synchronized (this) {
+                channel = this.segments.get((int) (number / this.recordsPerSegment));
+            }
+            record.clear();
+            while (record.hasRemaining()) {
+                if (channel.read(record, (number % this.recordsPerSegment) * RECORD_SIZE + record.position()) < 0) {
+                    throw new IOException("Ledger record " + number + " is missing");
+                }
+            }
+            Entry entry = new Entry(number, record);
+            entries.add(entry);
+            number = entry.previous;
+        }
+        return new Page(entries, number);
+    }
+
+    private FileChannel segment(long number) throws IOException {
+        int segment = (int) (number / this.recordsPerSegment);
+        while (this.segments.size() <= segment) {
+            if (!this.segments.isEmpty()) {
+                // the segment before is full, nothing is added to it anymore
+                this.writeHeads(this.segments.size() - 1);
+            }
+            this.segments.add(FileChannel.open(segmentFile(this.segments.size()),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE));
+        }
+        return this.segments.get(segment);
+    }
+
+    private Path segmentFile(int segment) {
+        return this.directory.resolve(String.format("%08d.ledger", segment));
+    }
+
+    private Path headsFile(int segment) {
+        return this.directory.resolve(String.format("%08d.heads", segment));
+    }
+
+    private void writeHeads(int segment) {
+        long first = (long) segment * this.recordsPerSegment;
+        long end = first + this.recordsPerSegment;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (int i = 0; i < this.heads.length; i++) {
+                if (this.heads[i] >= first && this.heads[i] < end) {
+                    out.writeInt(IdAllocator.MIN_ID + i);
+                    out.writeLong(this.heads[i]);
+                }
+            }
+            for (Map.Entry<Integer, Long> head : this.otherHeads.entrySet()) {
+                if (head.getValue() >= first && head.getValue() < end) {
+                    out.writeInt(head.getKey());
+                    out.writeLong(head.getValue());
+                }
+            }
+            // write it under another name first, so a heads file is always complete
+            Path temp = this.directory.resolve(String.format("%08d.heads.tmp", segment));
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, headsFile(segment), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the heads file only makes opening faster, without it the
+            // segment is read record by record
+            System.err.println("Could not write " + headsFile(segment) + ": " + e.getMessage());
+        }
+    }
+
+    private boolean readHeads(int segment) throws IOException {
+        Path file = headsFile(segment);
+        if (!Files.exists(file)) {
+            return false;
+        }
+        ByteBuffer heads = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (heads.remaining() % HEAD_SIZE != 0) {
+            return false;
+        }
+        while (heads.hasRemaining()) {
+            this.setHead(heads.getInt(), heads.getLong());
+        }
+        return true;
+    }
+
+    private long head(int id) {
+        if (id >= IdAllocator.MIN_ID && id <= IdAllocator.MAX_ID) {
+            return this.heads[id - IdAllocator.MIN_ID];
+        }
+        return this.otherHeads.getOrDefault(id, -1L);
+    }
+
+    private void setHead(int id, long number) {
+        if (id >= IdAllocator.MIN_ID && id <= IdAllocator.MAX_ID) {
+            this.heads[id - IdAllocator.MIN_ID] = number;
+        } else {
+            this.otherHeads.put(id, number);
+        }
+    }
+}
@@ -15,24 +15,102 @@
  * */
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
- * Utility class for CSVParser
+ * Utility class for CSVParser. The fields are kept already parsed (the id as
+ * an int, the account flags as bits and the balances as whole cents), so they
+ * are only converted from and to text when a row is read from or written to
+ * data.csv
  */
 public class Line {
     public enum AccountType {
         CHECKING,
         SAVINGS
     }
-    private final String[] line;
+    // number of fields in a row of data.csv
+    public static final int FIELDS = 8;
+    // bits of this.flags
+    private static final int CHECKING_OPEN = 1;
+    private static final int SAVINGS_OPEN = 2;
+
+    private int id;
+    private String fName;
+    private String lName;
+    private String pin;
+    private int flags;
+    // balances in cents (see Money)
+    private long checking;
+    private long savings;
+    // for lines read by MappedReader: the mapped file and where each field
+    // starts, the names and pin are read from here the first time they are used
+    private ByteBuffer source = null;
+    private int[] bounds = null;
+    // the parser the line belongs to, it is told before and after every
+    // change (see CSVParser.changing and changed). null while the line is not
+    // in a parser
+    CSVParser owner = null;
+    // where the line is in its parser's list of lines, so removing it does
+    // not have to look for it
+    int position = -1;
 
     /**
      * Create a Line object
      * @param line a row from data.csv
      */
     public Line(String[] line) {
-        this.line = line;
+        this.id = Integer.parseInt(line[0]);
+        this.fName = line[1];
+        this.lName = line[2];
+        this.flags = (Boolean.parseBoolean(line[3]) ? CHECKING_OPEN : 0)
+                | (Boolean.parseBoolean(line[5]) ? SAVINGS_OPEN : 0);
+        this.checking = Money.parseCents(line[4]);
+        this.savings = Money.parseCents(line[6]);
+        this.pin = line[7];
+    }
+
+    /**
+     * Create a Line object that reads its fields from a mapped row
+     * @param source the mapped file
+     * @param bounds start of each field, plus one past the end of the row
+     * @throws NumberFormatException if the id or an amount is not a number
+     */
+    Line(ByteBuffer source, int[] bounds) {
+        this.source = source;
+        this.bounds = bounds;
+
+        // the numbers are read straight from the mapped bytes, the id the
+        // same way Integer.parseInt would (digits with an optional '-')
+        int from = bounds[0];
+        int to = bounds[1] - 1;
+        boolean negative = from < to && source.get(from) == '-';
+        if (negative) {
+            from++;
+        }
+        if (from == to) {
+            throw new NumberFormatException("Empty id");
+        }
+        long id = 0;
+        for (int i = from; i < to; i++) {
+            byte b = source.get(i);
+            if (b < '0' || b > '9') {
+                throw new NumberFormatException("Bad digit in id: " + (char) b);
+            }
+            id = id * 10 + (b - '0');
+            if (id > Integer.MAX_VALUE + 1L) {
+                throw new NumberFormatException("Id out of range");
+            }
+        }
+        id = negative ? -id : id;
+        if (id > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Id out of range");
+        }
+        this.id = (int) id;
+        this.flags = (isTrue(3) ? CHECKING_OPEN : 0) | (isTrue(5) ? SAVINGS_OPEN : 0);
+        this.checking = Money.parseCents(source, bounds[4], bounds[5] - 1);
+        this.savings = Money.parseCents(source, bounds[6], bounds[7] - 1);
     }
 
     /**
@@ -44,7 +122,12 @@ public class Line {
      */
     public Line(String id, String fName, String lName, String pin) {
         // opens an empty user
-        this.line = new String[] {id, fName, lName, "false", "-1", "false", "-1", pin};
+        this.id = Integer.parseInt(id);
+        this.fName = fName;
+        this.lName = lName;
+        this.pin = pin;
+        this.checking = Money.CLOSED;
+        this.savings = Money.CLOSED;
     }
 
     /**
@@ -58,12 +141,14 @@ public class Line {
      */
     public Line(String id, String fName, String lName, String pin, AccountType accountType, double accountValue) {
         // opens an user with one account
-        this.line = new String[] {
-                id, fName, lName, accountType == AccountType.CHECKING ? "true" : "false",
-                accountType == AccountType.CHECKING ? Double.toString(accountValue) : "-1",
-                accountType == AccountType.SAVINGS ? "true" : "false",
-                accountType == AccountType.SAVINGS ? Double.toString(accountValue) : "-1",
-                pin};
+        this(id, fName, lName, pin);
+        if (accountType == AccountType.CHECKING) {
+            this.flags = CHECKING_OPEN;
+            this.checking = Money.fromDollars(accountValue);
+        } else {
+            this.flags = SAVINGS_OPEN;
+            this.savings = Money.fromDollars(accountValue);
+        }
     }
 
     /**
@@ -77,8 +162,10 @@ public class Line {
      */
     public Line(String id, String fName, String lName, String pin, double checkingValue, double savingsValue) {
         // opens an user with two accounts
-        this.line = new String[] {
-                id, fName, lName, "true", Double.toString(checkingValue), "true", Double.toString(savingsValue), pin};
+        this(id, fName, lName, pin);
+        this.flags = CHECKING_OPEN | SAVINGS_OPEN;
+        this.checking = Money.fromDollars(checkingValue);
+        this.savings = Money.fromDollars(savingsValue);
     }
 
 
@@ -87,7 +174,15 @@ public class Line {
      * @return user id
      */
     public String getId() {
-        return line[0];
+        return Integer.toString(id);
+    }
+
+    /**
+     * get the user id as a number
+     * @return user id
+     */
+    public int intId() {
+        return id;
     }
 
     /**
@@ -95,7 +190,10 @@ public class Line {
      * @return user first name
      */
     public String getfName() {
-        return line[1];
+        if (fName == null && source != null) {
+            fName = text(1);
+        }
+        return fName;
     }
 
     /**
@@ -103,7 +201,10 @@ public class Line {
      * @return user first name
      */
     public String getlName() {
-        return line[2];
+        if (lName == null && source != null) {
+            lName = text(2);
+        }
+        return lName;
     }
 
     /**
@@ -111,7 +212,7 @@ public class Line {
      * @return if the user has a checking account
      */
     public boolean isChecking() {
-        return Boolean.parseBoolean(line[3]);
+        return (flags & CHECKING_OPEN) != 0;
     }
 
     /**
@@ -119,7 +220,15 @@ public class Line {
      * @return value of checking account
      */
     public double valueOfChecking() {
-        return Double.parseDouble(line[4]);
+        return Money.toDollars(checking);
+    }
+
+    /**
+     * value of checking account in cents
+     * @return value of checking account in cents
+     */
+    public long centsOfChecking() {
+        return checking;
     }
 
     /**
@@ -127,7 +236,7 @@ public class Line {
      * @return if the user has a savings account
      */
     public boolean isSavings() {
-        return Boolean.parseBoolean(line[5]);
+        return (flags & SAVINGS_OPEN) != 0;
     }
 
     /**
@@ -135,7 +244,15 @@ public class Line {
      * @return the savings account balance
      */
     public double valueOfSavings() {
-        return Double.parseDouble(line[6]);
+        return Money.toDollars(savings);
+    }
+
+    /**
+     * savings account balance in cents
+     * @return the savings account balance in cents
+     */
+    public long centsOfSavings() {
+        return savings;
     }
 
     /**
@@ -143,7 +260,10 @@ public class Line {
      * @return the pin
      */
     public String getPin() {
-        return line[7];
+        if (pin == null && source != null) {
+            pin = text(7);
+        }
+        return pin;
     }
 
     /**
@@ -151,7 +271,23 @@ public class Line {
      * @param id the new id
      */
     public void setId(String id) {
-        line[0] = id;
+        int newId = Integer.parseInt(id);
+        if (owner != null && newId != this.id) {
+            // the parser finds lines by id, so it has to move the line
+            owner.renameLine(this, newId);
+            return;
+        }
+        changing(true);
+        this.id = newId;
+        changed(true);
+    }
+
+    /**
+     * change the id without telling the parser (for CSVParser.renameLine)
+     * @param id the new id
+     */
+    void id(int id) {
+        this.id = id;
     }
 
     /**
@@ -159,7 +295,9 @@ public class Line {
      * @param fName first name
      */
     public void setfName(String fName) {
-        line[1] = fName;
+        changing(true);
+        this.fName = fName;
+        changed(true);
     }
 
     /**
@@ -167,7 +305,9 @@ public class Line {
      * @param lName last name
      */
     public void setlName(String lName) {
-        line[2] = lName;
+        changing(true);
+        this.lName = lName;
+        changed(true);
     }
 
     /**
@@ -175,10 +315,19 @@ public class Line {
      * @param checking true to open account, and vice versa
      */
     public void setChecking(boolean checking) {
-        line[3] = Boolean.toString(checking);
-        // if the account is closed, set balance to -1
+        changing(false);
+        long before = this.checking;
+        if (checking) {
+            flags |= CHECKING_OPEN;
+        } else {
+            flags &= ~CHECKING_OPEN;
+            // if the account is closed, set balance to -1
+            this.checking = Money.CLOSED;
+        }
+        changed(false);
         if (!checking) {
-            line[4] = "-1";
+            // the money that was in the account is gone
+            moved(AccountType.CHECKING, before);
         }
     }
 
@@ -187,7 +336,23 @@ public class Line {
      * @param valueOfChecking value of money
      */
     public void setValueOfChecking(double valueOfChecking) {
-        line[4] = Double.toString(valueOfChecking);
+        changing(false);
+        long before = this.checking;
+        this.checking = Money.fromDollars(valueOfChecking);
+        changed(false);
+        moved(AccountType.CHECKING, before);
+    }
+
+    /**
+     * set checking account money value in cents
+     * @param cents value of money in cents
+     */
+    public void setCentsOfChecking(long cents) {
+        changing(false);
+        long before = this.checking;
+        this.checking = cents;
+        changed(false);
+        moved(AccountType.CHECKING, before);
     }
 
     /**
@@ -195,10 +360,19 @@ public class Line {
      * @param savings true to open account, and vice versa
      */
     public void setSavings(boolean savings) {
-        line[5] = Boolean.toString(savings);
-        // if the account is closed, set balance to -1
+        changing(false);
+        long before = this.savings;
+        if (savings) {
+            flags |= SAVINGS_OPEN;
+        } else {
+            flags &= ~SAVINGS_OPEN;
+            // if the account is closed, set balance to -1
+            this.savings = Money.CLOSED;
+        }
+        changed(false);
         if (!savings) {
-            line[6] = "-1";
+            // the money that was in the account is gone
+            moved(AccountType.SAVINGS, before);
         }
     }
 
@@ -207,7 +381,23 @@ public class Line {
      * @param valueOfSavings money amount
      */
     public void setValueOfSavings(double valueOfSavings) {
-        line[6] = Double.toString(valueOfSavings);
+        changing(false);
+        long before = this.savings;
+        this.savings = Money.fromDollars(valueOfSavings);
+        changed(false);
+        moved(AccountType.SAVINGS, before);
+    }
+
+    /**
+     * set monetary value of savings account in cents
+     * @param cents money amount in cents
+     */
+    public void setCentsOfSavings(long cents) {
+        changing(false);
+        long before = this.savings;
+        this.savings = cents;
+        changed(false);
+        moved(AccountType.SAVINGS, before);
     }
 
     /**
@@ -215,15 +405,95 @@ public class Line {
      * @param pin new pin value
      */
     public void setPin(String pin) {
-        line[7] = pin;
+        changing(false);
+        this.pin = pin;
+        changed(false);
     }
 
     /**
-     * return a string array for use with CSVParser
+     * copy every field from another line into this one
+     * @param other the line to copy from
+     */
+    public void copyFrom(Line other) {
+        if (owner != null && other.id != this.id) {
+            owner.renameLine(this, other.id);
+        }
+        changing(true);
+        this.id = other.id;
+        this.fName = other.getfName();
+        this.lName = other.getlName();
+        this.pin = other.getPin();
+        this.flags = other.flags;
+        this.checking = other.checking;
+        this.savings = other.savings;
+        changed(true);
+    }
+
+    /**
+     * return a string array for use with CSVParser. The array is a new copy,
+     * changing it does not change the line
      * @return a string array
      */
     public String[] getArray() {
-        return line;
+        return new String[] {
+                getId(), getfName(), getlName(),
+                Boolean.toString(isChecking()), Money.format(checking),
+                Boolean.toString(isSavings()), Money.format(savings),
+                getPin()};
     }
-}
 
+    /**
+     * the line as a row of data.csv (without the newline)
+     * @return the csv row
+     */
+    public String toCSV() {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(id).append(',')
+                .append(getfName()).append(',')
+                .append(getlName()).append(',')
+                .append(isChecking()).append(',');
+        Money.format(checking, sb).append(',')
+                .append(isSavings()).append(',');
+        Money.format(savings, sb).append(',')
+                .append(getPin());
+        return sb.toString();
+    }
+
+    private void changing(boolean names) {
+        // names is true when the id or a name is changed, so the parser
+        // knows if its name index has to be updated
+        if (owner != null) {
+            owner.changing(this, names);
+        }
+    }
+
+    private void changed(boolean names) {
+        if (owner != null) {
+            owner.changed(this, names);
+        }
+    }
+
+    private void moved(AccountType type, long before) {
+        // tell the parser how much money went in or out (for the ledger)
+        if (owner != null) {
+            owner.balanceChanged(this, type, before);
+        }
+    }
+
+    private String text(int field) {
+        // make a string from a field of the mapped row
+        byte[] bytes = new byte[bounds[field + 1] - 1 - bounds[field]];
+        source.get(bounds[field], bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean isTrue(int field) {
+        // same rule as Boolean.parseBoolean, without making a string
+        int start = bounds[field];
+        if (bounds[field + 1] - 1 - start != 4) {
+            return false;
+        }
+        return (source.get(start) | 0x20) == 't' && (source.get(start + 1) | 0x20) == 'r'
+                && (source.get(start + 2) | 0x20) == 'u' && (source.get(start + 3) | 0x20) == 'e';
+    }
+}
@@ -0,0 +1,525 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives ATM sessions without anyone at the terminal, to see how much
+ * traffic the program can take. Every session is a real Main.loop() run:
+ * a simulated terminal reads the prompts and types the answers (log in,
+ * then deposits, withdrawals, opening and closing accounts and PIN changes,
+ * then quit), and times each operation from the menu choice to the next
+ * menu. Sessions are started at a target rate and run on several threads
+ * at once.
+ * <br>
+ * The sessions are either random (the mix of operations is set with the
+ * weights below) or read from a script, one session per row:
+ * <br>
+ * id,step,step,... <br>
+ * where a step is D:amount[:c|s] (deposit), W:amount[:c|s] (withdraw),
+ * O[:c|s] (open), C[:c|s] (close) or P:pin (change PIN), e.g.
+ * 100001,D:10.00:c,W:5.00,P:4321. The script is repeated until enough
+ * sessions were run. Rows starting with # are skipped.
+ * <br>
+ * Usage: java LoadGenerator [name=value ...] with <br>
+ * users=10000 number of users to make a data file for <br>
+ * data=file use this data file instead of making one (random sessions
+ * use the users in it) <br>
+ * sessions=2000 number of sessions to run <br>
+ * concurrency=16 sessions running at the same time <br>
+ * rate=0 sessions started per second (0 for as fast as possible) <br>
+ * steps=5 most operations in a random session <br>
+ * mix=40,35,8,7,10 weights of deposit, withdraw, open, close, change PIN <br>
+ * script=file run the sessions in this file instead of random ones <br>
+ * seed=1 random seed, the same seed makes the same sessions (how they end
+ * can still depend on how the threads run)
+ */
+public class LoadGenerator {
+    /**
+     * What the report is broken down by
+     */
+    enum Kind {
+        LOGIN(null),
+        DEPOSIT("1"),
+        WITHDRAW("2"),
+        OPEN("3"),
+        CLOSE("4"),
+        CHANGE_PIN("5"),
+        SESSION(null);
+
+        // what to type at the menu
+        final String choice;
+
+        Kind(String choice) {
+            this.choice = choice;
+        }
+    }
+
+    /**
+     * One operation of a session
+     */
+    static class Step {
+        final Kind kind;
+        // c or s
+        final String account;
+        final String amount;
+        final String pin;
+
+        Step(Kind kind, String account, String amount, String pin) {
+            this.kind = kind;
+            this.account = account;
+            this.amount = amount;
+            this.pin = pin;
+        }
+
+        /**
+         * read a step of a script
+         * @param text e.g. D:10.00:c
+         * @return the step
+         */
+        static Step parse(String text) {
+            String[] parts = text.trim().split(":");
+            String account = "c";
+            switch (parts[0]) {
+                case "D":
+                case "W":
+                    if (parts.length > 2) {
+                        account = parts[2];
+                    }
+                    return new Step(parts[0].equals("D") ? Kind.DEPOSIT : Kind.WITHDRAW, account, parts[1], null);
+                case "O":
+                case "C":
+                    if (parts.length > 1) {
+                        account = parts[1];
+                    }
+                    return new Step(parts[0].equals("O") ? Kind.OPEN : Kind.CLOSE, account, null, null);
+                case "P":
+                    return new Step(Kind.CHANGE_PIN, null, null, parts[1]);
+                default:
+                    throw new IllegalArgumentException("Unknown step " + text);
+            }
+        }
+    }
+
+    /**
+     * A session to run: who logs in and what they do
+     */
+    static class Plan {
+        final int id;
+        final List<Step> steps;
+
+        Plan(int id, List<Step> steps) {
+            this.id = id;
+            this.steps = steps;
+        }
+    }
+
+    // what the program prints when it refuses something
+    private static final String[] REFUSALS = {
+            "Error", "problem", "failed", "Invalid", "not the same", "do not have", "already have"
+    };
+
+    private final Metrics.Stat[] latency = new Metrics.Stat[Kind.values().length];
+    private final LongAdder[] errors = new LongAdder[Kind.values().length];
+    private final LongAdder aborted = new LongAdder();
+    private final ATMService service;
+
+    LoadGenerator(ATMService service) {
+        this.service = service;
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = new Metrics.Stat();
+            errors[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * The terminal of one session. Whatever the session prints is collected
+     * until it waits for input, then the answer is picked from the prompt
+     */
+    private class Terminal extends InputStream {
+        private final Plan plan;
+        private final String pin;
+        private final StringBuilder screen = new StringBuilder();
+        // the operation being timed, what it printed so far and how many
+        // times it asked for an amount
+        private Kind current = null;
+        private final StringBuilder currentText = new StringBuilder();
+        private long currentStart;
+        private int amountPrompts;
+        private int next = 0;
+        private byte[] answer = null;
+        private int position = 0;
+
+        final PrintStream out = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                screen.append((char) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                screen.append(new String(b, off, len, StandardCharsets.UTF_8));
+            }
+        }, true, StandardCharsets.UTF_8);
+
+        Terminal(Plan plan, String pin) {
+            this.plan = plan;
+            this.pin = pin;
+        }
+
+        @Override
+        public int read() {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (answer == null || position >= answer.length) {
+                String prompt = screen.toString();
+                screen.setLength(0);
+                String line = answer(prompt);
+                if (line == null) {
+                    // hang up, the session stops with NoSuchElementException
+                    return -1;
+                }
+                answer = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                position = 0;
+            }
+            int n = Math.min(len, answer.length - position);
+            System.arraycopy(answer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        private String answer(String prompt) {
+            if (current != null) {
+                currentText.append(prompt);
+            }
+            if (prompt.endsWith("ID: ")) {
+                begin(Kind.LOGIN);
+                return Integer.toString(plan.id);
+            }
+            if (prompt.endsWith("PIN: ")) {
+                return pin;
+            }
+            if (prompt.endsWith("Enter a number: ")) {
+                end();
+                if (next >= plan.steps.size()) {
+                    return "6";
+                }
+                begin(plan.steps.get(next).kind);
+                return plan.steps.get(next++).kind.choice;
+            }
+            Step step = next > 0 ? plan.steps.get(next - 1) : null;
+            if (step == null) {
+                // e.g. asked to create a user for an id that does not exist
+                return null;
+            }
+            if (prompt.endsWith("Deposit: $") || prompt.endsWith("Withdraw: $")) {
+                // asked again: the amount was refused and would be forever
+                return amountPrompts++ == 0 ? step.amount : null;
+            }
+            if (prompt.endsWith("(y/n) ")) {
+                // no account to use, do not open one
+                return "n";
+            }
+            if (prompt.contains("new pin")) {
+                // a random session keeps its PIN
+                return step.pin != null ? step.pin : pin;
+            }
+            if (prompt.contains("checking") || prompt.contains("withdraw from")) {
+                return step.account;
+            }
+            return null;
+        }
+
+        private void begin(Kind kind) {
+            current = kind;
+            currentText.setLength(0);
+            currentStart = System.nanoTime();
+            amountPrompts = 0;
+        }
+
+        /**
+         * stop timing the current operation
+         */
+        void end() {
+            if (current == null) {
+                return;
+            }
+            latency[current.ordinal()].record(System.nanoTime() - currentStart);
+            String text = currentText.append(screen).toString();
+            for (String refusal : REFUSALS) {
+                if (text.contains(refusal)) {
+                    errors[current.ordinal()].increment();
+                    break;
+                }
+            }
+            current = null;
+        }
+
+        /**
+         * count the current operation as failed (the session ended in the middle)
+         */
+        void fail() {
+            if (current != null) {
+                latency[current.ordinal()].record(System.nanoTime() - currentStart);
+                errors[current.ordinal()].increment();
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Run one session through Main.loop()
+     * @param plan who logs in and what they do
+     * @param scheduled System.nanoTime() the session should have started at,
+     * the session time is counted from there so waiting to start counts too
+     */
+    void run(Plan plan, long scheduled) {
+        String pin;
+        try {
+            pin = service.getParser().getLine(plan.id).getPin();
+        } catch (IOException e) {
+            // log in with a PIN that is never right
+            pin = "0000";
+        }
+        Terminal terminal = new Terminal(plan, pin);
+        boolean failed = false;
+        try {
+            Main.loop(new Scanner(terminal, StandardCharsets.UTF_8), terminal.out);
+            terminal.end();
+        } catch (UserError | IOException | NoSuchElementException e) {
+            terminal.fail();
+            failed = true;
+        }
+        if (failed) {
+            aborted.increment();
+            errors[Kind.SESSION.ordinal()].increment();
+        }
+        latency[Kind.SESSION.ordinal()].record(System.nanoTime() - scheduled);
+    }
+
+    /**
+     * Run sessions on several threads
+     * @param plans the sessions, plans.next(i) is the i-th session
+     * @param sessions number of sessions
+     * @param concurrency sessions running at the same time
+     * @param rate sessions started per second, 0 for as fast as possible
+     * @return how long it took in nanoseconds
+     * @throws InterruptedException
+     */
+    long run(java.util.function.IntFunction<Plan> plans, int sessions, int concurrency, double rate) throws InterruptedException {
+        AtomicLong tickets = new AtomicLong();
+        long start = System.nanoTime();
+        long interval = rate > 0 ? (long) (1e9 / rate) : 0;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < concurrency; t++) {
+            Thread thread = new Thread(() -> {
+                for (;;) {
+                    long ticket = tickets.getAndIncrement();
+                    if (ticket >= sessions) {
+                        return;
+                    }
+                    // sessions start on a fixed schedule, a slow session makes
+                    // the next ones late rather than spreading them out
+                    long scheduled = start + ticket * interval;
+                    long wait = scheduled - System.nanoTime();
+                    if (wait > 0) {
+                        try {
+                            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    } else if (interval == 0) {
+                        scheduled = System.nanoTime();
+                    }
+                    run(plans.apply((int) ticket), scheduled);
+                }
+            }, "session-" + t);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * print throughput, latencies and errors per operation
+     * @param nanos how long the run took
+     * @param out where to print
+     */
+    void report(long nanos, PrintStream out) {
+        long sessions = latency[Kind.SESSION.ordinal()].getCount();
+        long operations = 0;
+        for (Kind kind : Kind.values()) {
+            if (kind.choice != null) {
+                operations += latency[kind.ordinal()].getCount();
+            }
+        }
+        double seconds = nanos / 1e9;
+        out.printf("%d sessions (%d cut short) and %d operations in %.2f s: %.1f sessions/s, %.1f operations/s%n",
+                sessions, aborted.sum(), operations, seconds, sessions / seconds, operations / seconds);
+        out.printf("%-12s %9s %8s %10s %10s %10s %10s%n", "operation", "count", "errors", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        for (Kind kind : Kind.values()) {
+            Metrics.Stat stat = latency[kind.ordinal()];
+            out.printf("%-12s %9d %8d %10.3f %10.3f %10.3f %10.3f%n", kind.name().toLowerCase(), stat.getCount(),
+                    errors[kind.ordinal()].sum(), stat.percentile(0.50) / 1e6, stat.percentile(0.90) / 1e6,
+                    stat.percentile(0.99) / 1e6, stat.getMaxMicros() / 1e3);
+        }
+    }
+
+    /**
+     * make a random session
+     * @param random where to get random numbers from
+     * @param ids the users to pick from
+     * @param steps most operations in the session
+     * @param mix weights of deposit, withdraw, open, close and change PIN
+     * @return the session
+     */
+    static Plan randomPlan(Random random, int[] ids, int steps, int[] mix) {
+        int id = ids[random.nextInt(ids.length)];
+        int total = 0;
+        for (int weight : mix) {
+            total += weight;
+        }
+        List<Step> plan = new ArrayList<>();
+        int count = 1 + random.nextInt(steps);
+        for (int i = 0; i < count; i++) {
+            int pick = random.nextInt(total);
+            int k = 0;
+            while (pick >= mix[k]) {
+                pick -= mix[k++];
+            }
+            String account = random.nextBoolean() ? "c" : "s";
+            String amount = Money.format(100 + random.nextInt(20_000));
+            switch (k) {
+                case 0 -> plan.add(new Step(Kind.DEPOSIT, account, amount, null));
+                case 1 -> plan.add(new Step(Kind.WITHDRAW, account, amount, null));
+                case 2 -> plan.add(new Step(Kind.OPEN, account, null, null));
+                case 3 -> plan.add(new Step(Kind.CLOSE, account, null, null));
+                default -> plan.add(new Step(Kind.CHANGE_PIN, null, null, null));
+            }
+        }
+        return new Plan(id, plan);
+    }
+
+    /**
+     * read a session script
+     * @param fileName the script
+     * @return the sessions
+     * @throws IOException
+     */
+    static List<Plan> readScript(String fileName) throws IOException {
+        List<Plan> plans = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
+            String row;
+            while ((row = br.readLine()) != null) {
+                if (row.isBlank() || row.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = row.split(",");
+                List<Step> steps = new ArrayList<>();
+                for (int i = 1; i < fields.length; i++) {
+                    steps.add(Step.parse(fields[i]));
+                }
+                plans.add(new Plan(Integer.parseInt(fields[0].trim()), steps));
+            }
+        }
+        return plans;
+    }
+
+    public static void main(String[] args) throws Exception {
+        java.util.Map<String, String> options = new java.util.HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                System.out.println("Usage: java LoadGenerator [users=10000] [data=file] [sessions=2000] [concurrency=16]"
+                        + " [rate=0] [steps=5] [mix=40,35,8,7,10] [script=file] [seed=1]");
+                return;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int users = Integer.parseInt(options.getOrDefault("users", "10000"));
+        int sessions = Integer.parseInt(options.getOrDefault("sessions", "2000"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        int steps = Integer.parseInt(options.getOrDefault("steps", "5"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        String[] weights = options.getOrDefault("mix", "40,35,8,7,10").split(",");
+        int[] mix = new int[5];
+        for (int i = 0; i < mix.length; i++) {
+            mix[i] = Integer.parseInt(weights[i].trim());
+        }
+
+        String data = options.get("data");
+        boolean generated = data == null;
+        if (generated) {
+            data = System.getProperty("java.io.tmpdir") + File.separator + "loadgen-" + users + ".csv";
+            Benchmark.generate(data, users);
+        }
+        CSVParser parser = AccountStore.load(data);
+        LoadGenerator generator = new LoadGenerator(AccountStore.service());
+
+        java.util.function.IntFunction<Plan> plans;
+        if (options.containsKey("script")) {
+            List<Plan> script = readScript(options.get("script"));
+            plans = i -> script.get(i % script.size());
+        } else {
+            // the users that are in the data file, in file order
+            int[] ids = parser.lines().stream().mapToInt(Line::intId).toArray();
+            if (ids.length == 0) {
+                System.out.println(data + " has no users");
+                return;
+            }
+            // every session's seed only depends on the seed and the session
+            // number, not on which thread got to it first
+            plans = i -> randomPlan(new Random(seed * 31 + i), ids, steps, mix);
+        }
+
+        long nanos = generator.run(plans, sessions, concurrency, rate);
+        generator.report(nanos, System.out);
+        System.out.println();
+        System.out.println("ATMService:");
+        Metrics.dump(System.out);
+        if (generated) {
+            // save anything still waiting, then remove the data file and
+            // whatever the store made next to it
+            parser.setWriteBehind(0);
+            parser.stopWatching();
+            new File(data).delete();
+            new File(data + ".journal").delete();
+            new File(BinaryCSVParser.binaryFile(data)).delete();
+            for (int i = 0; i < ATM.SHARDS; i++) {
+                String shard = ShardedCSVParser.shardFile(data, i);
+                new File(shard).delete();
+                new File(shard + ".journal").delete();
+            }
+        }
+    }
+}
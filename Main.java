@@ -20,103 +20,115 @@ import java.util.*;
 
 public class Main {
     public static void loop() throws UserError, IOException {
+        loop(new Scanner(System.in), System.out);
+    }
+
+    /**
+     * Run one login session: ask for the ID and PIN, then show the menu until
+     * the user quits
+     * @param sc scanner to read the answers from
+     * @param out where to print the questions and messages
+     * @throws UserError
+     * @throws IOException
+     */
+    public static void loop(Scanner sc, PrintStream out) throws UserError, IOException {
         // initialize objects and classes
 
         // all methods are static so no need
         // to create an ATM object
-        Scanner sc = new Scanner(System.in);
-        CSVParser parser = new CSVParser(ATM.CSV_DIRECTORY);
+        ATMService service = AccountStore.service();
         int ID; String pin; // used for login validation
 
 
         // login
-        System.out.println("Please provide your login information");
-        System.out.print("ID: ");
-        ID = sc.nextInt();
+        out.println("Please provide your login information");
+        out.print("ID: ");
+        ID = readInt(sc);
 
         // check if the ID is valid
-        try {
-            parser.getLine(ID);
-        } catch (IOException e) {
-            System.out.printf("Invalid ID: %d\n", ID);
+        if (!service.exists(ID)) {
+            out.printf("Invalid ID: %d\n", ID);
 
             // ask if the user wants to create a new account
-            System.out.print("Would you like to create a new account? (y/n) ");
-            String ans = sc.next();
+            out.print("Would you like to create a new account? (y/n) ");
+            String ans = sc.nextLine().trim();
             if (ans.equals("y")) {
                 // create a new account
-                ATM.createUser();
+                ATM.createUser(sc, out);
             }
             return;
         }
 
         // ask for pin
-        System.out.print("PIN: ");
-        pin = sc.next();
+        out.print("PIN: ");
+        pin = sc.nextLine().trim();
 
         // validate login
         try {
             if (ATM.validateLogin(ID, pin)) {
-                System.out.println("Login successful");
-                System.out.println("Welcome " + parser.getLine(ID).getfName() + " " + parser.getLine(ID).getlName());
+                out.println("Login successful");
+                out.println("Welcome " + service.name(ID));
 
                 for (;;) {
                     // print a new line to clean up
-                    System.out.println();
+                    out.println();
 
                     // the login was successful, ask if the user wants to
                     // deposit, withdraw, open an account, close an account,
                     // change their pin, or quit
-                    System.out.println("What would you like to do?");
-                    System.out.println("1. Deposit");
-                    System.out.println("2. Withdraw");
-                    System.out.println("3. Open an account");
-                    System.out.println("4. Close an account");
-                    System.out.println("5. Change your PIN");
-                    System.out.println("6. Quit");
-                    System.out.print("Enter a number: ");
-                    int ans = sc.nextInt();
+                    out.println("What would you like to do?");
+                    out.println("1. Deposit");
+                    out.println("2. Withdraw");
+                    out.println("3. Open an account");
+                    out.println("4. Close an account");
+                    out.println("5. Change your PIN");
+                    out.println("6. Quit");
+                    out.print("Enter a number: ");
+                    int ans = readInt(sc);
 
                     // handle the user's choice
                     switch (ans) {
                         case 1:
                             // deposit
-                            ATM.deposit(ID);
+                            ATM.deposit(ID, sc, out);
                             break;
                         case 2:
                             // withdraw
-                            ATM.withdraw(ID);
+                            ATM.withdraw(ID, sc, out);
                             break;
                         case 3:
                             // open an account
-                            ATM.createAccount(ID);
+                            ATM.createAccount(ID, sc, out);
                             break;
                         case 4:
                             // close an account
-                            ATM.closeAccount(ID);
+                            ATM.closeAccount(ID, sc, out);
                             break;
                         case 5:
                             // change pin
-                            ATM.changePIN(ID);
+                            ATM.changePIN(ID, sc, out);
                             break;
                         case 6:
                             // quit
                             return;
                         default:
                             // invalid choice
-                            System.out.println("Invalid choice");
+                            out.println("Invalid choice");
                             break;
                     }
                 }
             } else {
-                System.out.println("Login failed, the PIN was invalid");
+                out.println("Login failed, the PIN was invalid");
             }
         } catch (UserError e) {
+            // the session ends, but say why instead of going back to the
+            // login prompt without a word
+            out.println(e.getMessage());
 //            if (e.errorType == UserError.ErrorType.INVALID_ID) {
-//                System.out.printf("Invalid ID: %d\n", ID);
+//                out.printf("Invalid ID: %d\n", ID);
 //
 //                // ask if the user wants to create a new account
-//                System.out.print("Would you like to create a new account? (y/n) ");
+//                out.print("Would you like to create a new account? (y/n) ");
 //                String ans = sc.next();
 //                if (ans.equals("y")) {
 //                    // create a new account
@@ -126,19 +138,50 @@ public class Main {
         }
     }
 
-    public static void main(String[] args) {
-        while (true) {
+    /**
+     * Keep running login sessions until there is no more input
+     * @param sc scanner to read the answers from
+     * @param out where to print the questions and messages
+     */
+    public static void run(Scanner sc, PrintStream out) {
+        while (sc.hasNextLine()) {
             try {
-                Main.loop();
+                Main.loop(sc, out);
             } catch (UserError e) {
                 switch (e.errorType) {
-                    case GENERIC -> System.out.println("An unexpected error occurred");
-                    case INVALID_ID -> System.out.println("A problem occured: the ID was invalid");
-                    case INVALID_PIN -> System.out.println("A problem occured: the PIN was invalid");
+                    case GENERIC -> out.println("An unexpected error occurred");
+                    case INVALID_ID -> out.println("A problem occured: the ID was invalid");
+                    case INVALID_PIN -> out.println("A problem occured: the PIN was invalid");
+                    default -> out.println(e.getMessage());
                 }
             } catch (IOException e) {
-                System.out.println("A problem occurred: " + e.getMessage());
+                out.println("A problem occurred: " + e.getMessage());
+            } catch (NoSuchElementException e) {
+                // the input ended in the middle of a session
+                return;
             }
         }
     }
+
+    public static void main(String[] args) {
+        // read data.csv once, every loop shares the same data
+        try {
+            AccountStore.load(ATM.CSV_DIRECTORY);
+        } catch (IOException e) {
+            System.out.println("A problem occurred: " + e.getMessage());
+            return;
+        }
+
+        // one scanner for the whole program, so no input is lost between prompts
+        Main.run(new Scanner(System.in), System.out);
+    }
+
+    private static int readInt(Scanner sc) {
+        // read a whole line as a number, -1 if it is not a number
+        try {
+            return Integer.parseInt(sc.nextLine().trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads data.csv through memory mapped buffers. Rows are split straight from
+ * the mapped bytes, and each Line only keeps the positions of its fields, the
+ * field strings are made the first time they are read.
+ */
+public class MappedReader {
+    // a single mapping can not be bigger than 2GB, so big files are mapped in pieces
+    static final long MAX_CHUNK = 1L << 30;
+    // parseParallel() parses ranges up to this many bytes on one thread
+    static final int PARALLEL_THRESHOLD = 1 << 20;
+
+    /**
+     * map a file into buffers of at most MAX_CHUNK bytes. Every buffer ends
+     * right after a newline (or at the end of the file), so no row is split
+     * between two buffers
+     * @param fileName path to the file
+     * @return the mapped buffers, in file order
+     * @throws IOException
+     */
+    public static List<MappedByteBuffer> map(String fileName) throws IOException {
+        List<MappedByteBuffer> chunks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(MAX_CHUNK, size - position);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                if (position + length < size) {
+                    // cut the chunk after the last full row
+                    int end = (int) length;
+                    while (end > 0 && chunk.get(end - 1) != '\n') {
+                        end--;
+                    }
+                    if (end == 0) {
+                        throw new IOException("Row longer than " + MAX_CHUNK + " bytes");
+                    }
+                    length = end;
+                    chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                }
+                chunks.add(chunk);
+                position += length;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * split the rows in part of a buffer into Line objects
+     * @param buffer the mapped buffer
+     * @param from offset of the first byte of the first row
+     * @param to offset just past the last row
+     * @param out list to add the lines to
+     * @throws IOException if a row does not have 8 fields or its id or an
+     * amount is not a number
+     */
+    public static void parse(MappedByteBuffer buffer, int from, int to, List<Line> out) throws IOException {
+        int position = from;
+        while (position < to) {
+            // bounds[i] is where field i starts, bounds[8] is one past the
+            // separator that ends the last field
+            int[] bounds = new int[Line.FIELDS + 1];
+            int field = 0;
+            bounds[0] = position;
+            int end = position;
+            while (end < to && buffer.get(end) != '\n') {
+                if (buffer.get(end) == ',') {
+                    if (++field >= Line.FIELDS) {
+                        throw new IOException("Malformed row at byte " + position);
+                    }
+                    bounds[field] = end + 1;
+                }
+                end++;
+            }
+            // skip the \r of a \r\n line ending
+            int rowEnd = (end > position && buffer.get(end - 1) == '\r') ? end - 1 : end;
+            if (rowEnd > position) {
+                if (field != Line.FIELDS - 1) {
+                    throw new IOException("Malformed row at byte " + position);
+                }
+                bounds[Line.FIELDS] = rowEnd + 1;
+                try {
+                    out.add(new Line(buffer, bounds));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed row at byte " + position, e);
+                }
+            }
+            position = end + 1;
+        }
+    }
+
+    /**
+     * same as parse(), but big buffers are cut into pieces (at newlines) that
+     * are parsed on the common fork-join pool. The lines are still added in
+     * file order
+     * @param buffer the mapped buffer
+     * @param from offset of the first byte of the first row
+     * @param to offset just past the last row
+     * @param threshold ranges up to this many bytes are parsed on one thread
+     * (more than 0)
+     * @param out list to add the lines to
+     * @throws IOException if a row does not have 8 fields
+     */
+    public static void parseParallel(MappedByteBuffer buffer, int from, int to, int threshold, List<Line> out) throws IOException {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("The threshold must be positive");
+        }
+        if (to - from <= threshold) {
+            parse(buffer, from, to, out);
+            return;
+        }
+        List<List<Line>> pieces;
+        try {
+            pieces = ForkJoinPool.commonPool().invoke(new ParseTask(buffer, from, to, threshold));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        int size = 0;
+        for (List<Line> piece : pieces) {
+            size += piece.size();
+        }
+        if (out instanceof ArrayList) {
+            ((ArrayList<Line>) out).ensureCapacity(out.size() + size);
+        }
+        for (List<Line> piece : pieces) {
+            out.addAll(piece);
+        }
+    }
+
+    /**
+     * Parses a range of a buffer, splitting it in two while it is bigger than
+     * the threshold. The result is the lines of each piece, in file order
+     */
+    private static class ParseTask extends RecursiveTask<List<List<Line>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient MappedByteBuffer buffer;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        ParseTask(MappedByteBuffer buffer, int from, int to, int threshold) {
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected List<List<Line>> compute() {
+            int middle = to;
+            if (to - from > threshold) {
+                // cut in the middle, moved forward to just after the next
+                // newline (the range is at least 2 bytes, so middle - 1 is
+                // still in it)
+                middle = from + (to - from) / 2;
+                while (middle < to && buffer.get(middle - 1) != '\n') {
+                    middle++;
+                }
+            }
+            if (middle >= to) {
+                List<Line> lines = new ArrayList<>();
+                try {
+                    parse(buffer, from, to, lines);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                List<List<Line>> pieces = new ArrayList<>();
+                pieces.add(lines);
+                return pieces;
+            }
+            ParseTask left = new ParseTask(buffer, from, middle, threshold);
+            left.fork();
+            List<List<Line>> right = new ParseTask(buffer, middle, to, threshold).compute();
+            List<List<Line>> pieces = left.join();
+            pieces.addAll(right);
+            return pieces;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Counters and latency histograms for the storage and ATM operations.
+ * Recording only touches atomics (no locks), the numbers can be read through
+ * JMX (ATM:type=Metrics,name=...) or printed every few seconds with
+ * startDump().
+ */
+public class Metrics {
+    /**
+     * The operations that are measured
+     */
+    public enum Op {
+        CSV_UPDATE,
+        CSV_WRITE,
+        CSV_GET_LINE,
+        VALIDATE_LOGIN,
+        CREATE_USER,
+        CREATE_ACCOUNT,
+        CLOSE_ACCOUNT,
+        DEPOSIT,
+        WITHDRAW,
+        CHANGE_PIN,
+        PAY_INTEREST;
+
+        private final Stat stat = new Stat();
+
+        /**
+         * record one call of the operation
+         * @param startNanos System.nanoTime() from when the call started
+         */
+        public void record(long startNanos) {
+            stat.record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * count one call that failed (it still has to be record()ed)
+         */
+        public void error() {
+            stat.errors.increment();
+        }
+
+        /**
+         * get the numbers for this operation
+         * @return the stat
+         */
+        public Stat stat() {
+            return stat;
+        }
+    }
+
+    /**
+     * What JMX shows for each operation. Times are in microseconds
+     */
+    public interface StatMBean {
+        long getCount();
+        long getErrors();
+        double getP50Micros();
+        double getP99Micros();
+        double getMaxMicros();
+        void reset();
+    }
+
+    /**
+     * Call count, error count and latency histogram of one operation. The
+     * histogram has SUB_BUCKETS buckets per power of two, so percentiles are
+     * within about 12% of the real value
+     */
+    public static class Stat implements StatMBean {
+        static final int SUB_BITS = 3;
+        static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+
+        /**
+         * record one call
+         * @param nanos how long it took
+         */
+        public void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            count.increment();
+            buckets.incrementAndGet(bucket(nanos));
+            long current = max.get();
+            while (nanos > current && !max.compareAndSet(current, nanos)) {
+                current = max.get();
+            }
+        }
+
+        /**
+         * latency that the given fraction of calls were at or under
+         * @param fraction e.g. 0.99
+         * @return the latency in nanoseconds (upper edge of its bucket)
+         */
+        public long percentile(double fraction) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                total += buckets.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return Math.min(upperEdge(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        @Override
+        public double getP50Micros() {
+            return percentile(0.50) / 1000.0;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return percentile(0.99) / 1000.0;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return max.get() / 1000.0;
+        }
+
+        @Override
+        public void reset() {
+            count.reset();
+            errors.reset();
+            max.set(0);
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+        }
+
+        private static int bucket(long nanos) {
+            // small values get one bucket each, bigger ones share a bucket
+            // with everything that has the same top SUB_BITS + 1 bits
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperEdge(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            long sub = bucket % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+        }
+    }
+
+    private static boolean registered = false;
+    private static ScheduledExecutorService dumper = null;
+
+    /**
+     * make every operation visible through JMX. Safe to call more than once
+     */
+    public static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Op op : Op.values()) {
+                ObjectName name = new ObjectName("ATM:type=Metrics,name=" + op.name().toLowerCase());
+                server.registerMBean(new StandardMBean(op.stat, StatMBean.class), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the metrics", e);
+        }
+        registered = true;
+    }
+
+    /**
+     * print every operation's numbers
+     * @param out where to print
+     */
+    public static void dump(PrintStream out) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-16s %10s %8s %12s %12s %12s%n", "operation", "count", "errors", "p50 us", "p99 us", "max us"));
+        for (Op op : Op.values()) {
+            Stat stat = op.stat;
+            sb.append(String.format("%-16s %10d %8d %12.1f %12.1f %12.1f%n", op.name().toLowerCase(),
+                    stat.getCount(), stat.getErrors(), stat.getP50Micros(), stat.getP99Micros(), stat.getMaxMicros()));
+        }
+        out.print(sb);
+    }
+
+    /**
+     * print the numbers every few seconds on a background thread
+     * @param seconds time between prints
+     * @param out where to print
+     */
+    public static synchronized void startDump(long seconds, PrintStream out) {
+        if (dumper != null) {
+            return;
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(out), seconds, seconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Money helpers. Amounts are whole cents in a long, so adding and subtracting
+ * is exact, and they are only turned into dollars and cents text for data.csv
+ * and for printing.
+ */
+public class Money {
+    // balance of a closed account (-$1.00)
+    public static final long CLOSED = -100;
+
+    /**
+     * add two amounts
+     * @param a amount in cents
+     * @param b amount in cents
+     * @return a + b in cents
+     * @throws ArithmeticException if the result does not fit in a long
+     */
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    /**
+     * subtract one amount from another
+     * @param a amount in cents
+     * @param b amount in cents
+     * @return a - b in cents
+     * @throws ArithmeticException if the result does not fit in a long
+     */
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    /**
+     * multiply an amount by a rate (for interest), rounding to whole cents
+     * @param cents amount in cents
+     * @param rate e.g. 0.0025 for 0.25%
+     * @param rounding how to round to whole cents
+     * @return cents * rate in cents
+     * @throws ArithmeticException if the result does not fit in a long
+     */
+    public static long multiply(long cents, BigDecimal rate, RoundingMode rounding) {
+        return BigDecimal.valueOf(cents).multiply(rate).setScale(0, rounding).longValueExact();
+    }
+
+    /**
+     * convert dollars to cents, rounding to the nearest cent
+     * @param dollars amount in dollars
+     * @return amount in cents
+     */
+    public static long fromDollars(double dollars) {
+        return Math.round(dollars * 100.0);
+    }
+
+    /**
+     * convert cents to dollars
+     * @param cents amount in cents
+     * @return amount in dollars
+     */
+    public static double toDollars(long cents) {
+        return cents / 100.0;
+    }
+
+    /**
+     * parse an amount like "12", "12.5", "-1" or "12.34" into cents. Anything
+     * else (more decimals, exponents like "1.0E9") is rounded half up to the
+     * nearest cent
+     * @param text the amount in dollars
+     * @return amount in cents
+     * @throws NumberFormatException if the text is not a number
+     */
+    public static long parseCents(CharSequence text) {
+        long cents = parsePlain(text, null, 0, text.length());
+        if (cents == Long.MIN_VALUE) {
+            cents = parseSlow(text.toString());
+        }
+        return cents;
+    }
+
+    /**
+     * parse an amount in dollars from bytes (see parseCents(CharSequence))
+     * @param bytes buffer with the text
+     * @param from offset of the first character
+     * @param to offset just past the last character
+     * @return amount in cents
+     * @throws NumberFormatException if the text is not a number
+     */
+    public static long parseCents(ByteBuffer bytes, int from, int to) {
+        long cents = parsePlain(null, bytes, from, to);
+        if (cents == Long.MIN_VALUE) {
+            byte[] copy = new byte[to - from];
+            bytes.get(from, copy);
+            cents = parseSlow(new String(copy, StandardCharsets.US_ASCII));
+        }
+        return cents;
+    }
+
+    /**
+     * write an amount as dollars with exactly two decimals, e.g. "12.30"
+     * @param cents amount in cents
+     * @param sb where to write it
+     * @return sb
+     */
+    public static StringBuilder format(long cents, StringBuilder sb) {
+        if (cents < 0) {
+            sb.append('-');
+        }
+        // divide before taking the absolute value so Long.MIN_VALUE works too
+        long dollars = Math.abs(cents / 100);
+        int rest = (int) Math.abs(cents % 100);
+        sb.append(dollars).append('.');
+        sb.append((char) ('0' + rest / 10)).append((char) ('0' + rest % 10));
+        return sb;
+    }
+
+    /**
+     * an amount as dollars with exactly two decimals, e.g. "12.30"
+     * @param cents amount in cents
+     * @return the text
+     */
+    public static String format(long cents) {
+        return format(cents, new StringBuilder(24)).toString();
+    }
+
+    private static long parsePlain(CharSequence text, ByteBuffer bytes, int from, int to) {
+        // fast path for [-]digits[.d[d]], returns Long.MIN_VALUE for anything else
+        int i = from;
+        boolean negative = false;
+        if (i < to && charAt(text, bytes, i) == '-') {
+            negative = true;
+            i++;
+        }
+        long dollars = 0;
+        int digits = 0;
+        while (i < to && isDigit(charAt(text, bytes, i))) {
+            if (++digits > 16) {
+                return Long.MIN_VALUE;
+            }
+            dollars = dollars * 10 + (charAt(text, bytes, i) - '0');
+            i++;
+        }
+        long cents = 0;
+        if (i < to && charAt(text, bytes, i) == '.') {
+            i++;
+            int decimals = 0;
+            while (i < to && isDigit(charAt(text, bytes, i))) {
+                if (++decimals > 2) {
+                    return Long.MIN_VALUE;
+                }
+                cents = cents * 10 + (charAt(text, bytes, i) - '0');
+                i++;
+            }
+            if (decimals == 1) {
+                cents *= 10;
+            }
+            digits += decimals;
+        }
+        if (i != to || digits == 0) {
+            return Long.MIN_VALUE;
+        }
+        long value = dollars * 100 + cents;
+        return negative ? -value : value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static char charAt(CharSequence text, ByteBuffer bytes, int i) {
+        return text != null ? text.charAt(i) : (char) bytes.get(i);
+    }
+
+    private static long parseSlow(String text) {
+        try {
+            return new BigDecimal(text.trim()).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount out of range: " + text);
+        }
+    }
+}
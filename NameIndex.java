@@ -0,0 +1,155 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Looks users up by first or last name, either the whole name or the start
+ * of it. Each name is kept in a sorted map (a skip list) ordered by name and
+ * then id, so every user with a name (or a name starting with some letters)
+ * is one range of the map. The parser keeps it up to date as lines are
+ * added, removed and renamed (see CSVParser.nameIndex()).
+ * Names are stored uppercase, the way ATM.createUser saves them, and
+ * searches are uppercased too.
+ */
+public class NameIndex {
+    /**
+     * Which name to search
+     */
+    public enum Field {
+        FIRST,
+        LAST
+    }
+
+    /**
+     * A name and the id of the user with it, ordered by name then id. Uses
+     * the line's own name string, so it costs no more than the key object
+     */
+    private static class Key implements Comparable<Key> {
+        final String name;
+        final int id;
+
+        Key(String name, int id) {
+            this.name = name;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int c = name.compareTo(other.name);
+            return c != 0 ? c : Integer.compare(id, other.id);
+        }
+    }
+
+    private volatile ConcurrentSkipListMap<Key, Line> firstNames = new ConcurrentSkipListMap<>();
+    private volatile ConcurrentSkipListMap<Key, Line> lastNames = new ConcurrentSkipListMap<>();
+
+    /**
+     * index a line
+     * @param line the line
+     */
+    void add(Line line) {
+        firstNames.put(new Key(line.getfName().toUpperCase(), line.intId()), line);
+        lastNames.put(new Key(line.getlName().toUpperCase(), line.intId()), line);
+    }
+
+    /**
+     * index many lines at once. Much faster than add() for every line (the
+     * names are sorted in a TreeMap and the skip lists are built from that in
+     * one go), but nothing else may use the index meanwhile
+     * @param lines the lines
+     */
+    void addAll(Collection<Line> lines) {
+        TreeMap<Key, Line> first = new TreeMap<>(firstNames);
+        TreeMap<Key, Line> last = new TreeMap<>(lastNames);
+        for (Line line : lines) {
+            first.put(new Key(line.getfName().toUpperCase(), line.intId()), line);
+            last.put(new Key(line.getlName().toUpperCase(), line.intId()), line);
+        }
+        firstNames = new ConcurrentSkipListMap<>(first);
+        lastNames = new ConcurrentSkipListMap<>(last);
+    }
+
+    /**
+     * stop indexing a line, it must have the same names and id as when it was added
+     * @param line the line
+     */
+    void remove(Line line) {
+        firstNames.remove(new Key(line.getfName().toUpperCase(), line.intId()), line);
+        lastNames.remove(new Key(line.getlName().toUpperCase(), line.intId()), line);
+    }
+
+    /**
+     * users with exactly this name
+     * @param field first or last name
+     * @param name the name
+     * @param limit most users to return
+     * @return the users, in id order
+     */
+    public List<Line> exact(Field field, String name, int limit) {
+        return first(exactRange(field, name), limit);
+    }
+
+    /**
+     * users whose name starts with some letters
+     * @param field first or last name
+     * @param prefix the start of the name
+     * @param limit most users to return
+     * @return the users, in name order
+     */
+    public List<Line> prefix(Field field, String prefix, int limit) {
+        String from = prefix.toUpperCase();
+        // every name that starts with the prefix is between the prefix and
+        // the prefix followed by the highest character
+        return first(map(field).subMap(new Key(from, Integer.MIN_VALUE), new Key(from + Character.MAX_VALUE, Integer.MIN_VALUE)), limit);
+    }
+
+    /**
+     * number of users with exactly this name
+     * @param field first or last name
+     * @param name the name
+     * @return number of users
+     */
+    public int count(Field field, String name) {
+        return exactRange(field, name).size();
+    }
+
+    private ConcurrentNavigableMap<Key, Line> exactRange(Field field, String name) {
+        String upper = name.toUpperCase();
+        return map(field).subMap(new Key(upper, Integer.MIN_VALUE), true, new Key(upper, Integer.MAX_VALUE), true);
+    }
+
+    private ConcurrentSkipListMap<Key, Line> map(Field field) {
+        return field == Field.FIRST ? firstNames : lastNames;
+    }
+
+    private static List<Line> first(ConcurrentNavigableMap<Key, Line> range, int limit) {
+        List<Line> lines = new ArrayList<>();
+        for (Line line : range.values()) {
+            if (lines.size() >= limit) {
+                break;
+            }
+            lines.add(line);
+        }
+        return lines;
+    }
+}
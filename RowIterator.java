@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a csv file one row at a time. Only the current row is kept, so a
+ * file of any size can be scanned in the same amount of memory. See
+ * CSVParser.stream() for the usual way to use it.
+ */
+public class RowIterator implements Iterator<Line>, Closeable {
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private final BufferedReader reader;
+    // the fields of the current row, reused for every row (Line does not
+    // keep the array)
+    private final String[] fields = new String[Line.FIELDS];
+    private Line next = null;
+    private long rowNumber = 0;
+
+    /**
+     * Open a csv file for reading
+     * @param fileName relative or absolute path to the csv file + file name
+     * @throws IOException
+     */
+    public RowIterator(String fileName) throws IOException {
+        this.reader = new BufferedReader(new FileReader(fileName), BUFFER_SIZE);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.next != null) {
+            return true;
+        }
+        String row;
+        try {
+            row = this.reader.readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (row == null) {
+            return false;
+        }
+        this.rowNumber++;
+        this.next = new Line(this.split(row));
+        return true;
+    }
+
+    @Override
+    public Line next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Line line = this.next;
+        this.next = null;
+        return line;
+    }
+
+    /**
+     * number of rows read so far
+     * @return the row number of the last row returned
+     */
+    public long rowNumber() {
+        return this.rowNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+
+    private String[] split(String row) {
+        // same as row.split(",") without making a new array every row
+        int from = 0;
+        for (int i = 0; i < Line.FIELDS; i++) {
+            int to = row.indexOf(',', from);
+            if (to < 0 && i == Line.FIELDS - 1) {
+                to = row.length();
+            } else if (to < 0) {
+                throw new UncheckedIOException(new IOException("Row " + this.rowNumber + " has too few fields"));
+            }
+            this.fields[i] = row.substring(from, to);
+            from = to + 1;
+        }
+        return this.fields;
+    }
+}
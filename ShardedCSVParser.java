@@ -0,0 +1,468 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A CSVParser that keeps its users in several files (shards) instead of one.
+ * Every user belongs to exactly one shard, chosen from the id either by range
+ * (shard 0 gets the lowest ids) or by hash (spread evenly). Each shard is a
+ * CSVParser of its own, the shards are read in parallel, and a change only
+ * rewrites (or journals to) the shard of the user that changed.
+ * <br>
+ * For data.csv the shards are data-0.csv, data-1.csv, ... If none of them
+ * exist yet but data.csv does, data.csv (with its journal replayed) is split
+ * into them first.
+ */
+public class ShardedCSVParser extends CSVParser {
+    /**
+     * How users are given to shards
+     */
+    public enum Split {
+        // equal ranges of the 6 digit ids, in order
+        RANGE,
+        // by a hash of the id
+        HASH
+    }
+
+    private final CSVParser[] shards;
+    private final Split split;
+
+    /**
+     * Open (or make) the shards of a csv file
+     * @param fileName relative or absolute path to the csv file + file name,
+     * the shard files are named after it
+     * @param shards number of shards
+     * @param split how users are given to shards
+     * @throws IOException if a shard could not be read
+     */
+    public ShardedCSVParser(String fileName, int shards, Split split) throws IOException {
+        this(fileName, shards, split, Loader.READER);
+    }
+
+    /**
+     * Open (or make) the shards of a csv file
+     * @param fileName relative or absolute path to the csv file + file name,
+     * the shard files are named after it
+     * @param shards number of shards
+     * @param split how users are given to shards
+     * @param loader how to read each shard
+     * @throws IOException if a shard could not be read
+     */
+    public ShardedCSVParser(String fileName, int shards, Split split, Loader loader) throws IOException {
+        super(fileName, loader, false);
+        this.shards = new CSVParser[shards];
+        this.split = split;
+
+        boolean exists = false;
+        for (int i = 0; i < shards; i++) {
+            exists |= new File(shardFile(fileName, i)).exists();
+        }
+        if (!exists && new File(fileName).exists()) {
+            split(fileName, fileName, shards, split);
+        }
+        for (int i = 0; i < shards; i++) {
+            // an empty shard is a valid shard
+            new File(shardFile(fileName, i)).createNewFile();
+        }
+
+        // read the shards in parallel
+        String[] files = new String[shards];
+        for (int i = 0; i < shards; i++) {
+            files[i] = shardFile(fileName, i);
+        }
+        List<CSVParser> loaded = parallel(shards, i -> new CSVParser(files[i], loader));
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = loaded.get(i);
+            this.shards[i].parent = this;
+            // the services lock users through this parser, the shards have
+            // to wait for the same locks when they are read again
+            this.shards[i].shareUserLocks(this.userLocks);
+        }
+        this.ids = this.collectIds();
+    }
+
+    /**
+     * path of one shard of a csv file, data.csv becomes data-0.csv, data-1.csv, ...
+     * @param fileName the csv file
+     * @param shard shard number
+     * @return the shard path
+     */
+    public static String shardFile(String fileName, int shard) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= fileName.lastIndexOf(File.separatorChar)) {
+            return fileName + "-" + shard;
+        }
+        return fileName.substring(0, dot) + "-" + shard + fileName.substring(dot);
+    }
+
+    /**
+     * shard number of a user
+     * @param id user id
+     * @param shards number of shards
+     * @param split how users are given to shards
+     * @return the shard the user belongs to
+     */
+    public static int shardOf(int id, int shards, Split split) {
+        if (split == Split.HASH) {
+            return Math.floorMod(IdAllocator.spread(id), shards);
+        }
+        // ids outside the 6 digit range go to the first or last shard
+        long offset = Math.max(0, Math.min(IdAllocator.SIZE - 1, (long) id - IdAllocator.MIN_ID));
+        return (int) (offset * shards / IdAllocator.SIZE);
+    }
+
+    /**
+     * Split a csv file into shard files, replacing any that exist. The csv
+     * file is loaded by a CSVParser, so changes still in its journal end up
+     * in the shards too
+     * @param source the csv file to split
+     * @param fileName the csv file the shards are named after
+     * @param shards number of shards
+     * @param split how users are given to shards
+     * @throws IOException
+     */
+    public static void split(String source, String fileName, int shards, Split split) throws IOException {
+        CSVParser rows = new CSVParser(source);
+        BufferedWriter[] writers = new BufferedWriter[shards];
+        try {
+            for (int i = 0; i < shards; i++) {
+                writers[i] = new BufferedWriter(new FileWriter(shardFile(fileName, i)), RowIterator.BUFFER_SIZE);
+            }
+            for (Line line : rows.lines()) {
+                BufferedWriter bw = writers[shardOf(line.intId(), shards, split)];
+                bw.write(line.toCSV());
+                bw.newLine();
+            }
+        } finally {
+            for (BufferedWriter bw : writers) {
+                if (bw != null) {
+                    bw.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * number of shards
+     * @return number of shards
+     */
+    public int shards() {
+        return this.shards.length;
+    }
+
+    /**
+     * get one shard
+     * @param shard shard number
+     * @return the parser of that shard
+     */
+    public CSVParser shard(int shard) {
+        return this.shards[shard];
+    }
+
+    private IdAllocator collectIds() {
+        // one allocator for all shards, so free ids can be found without
+        // asking every shard
+        IdAllocator ids = new IdAllocator();
+        for (CSVParser shard : this.shards) {
+            ids.addAll(shard.ids());
+        }
+        return ids;
+    }
+
+    @Override
+    void shareUserLocks(StripedLock userLocks) {
+        super.shareUserLocks(userLocks);
+        for (CSVParser shard : this.shards) {
+            shard.shareUserLocks(userLocks);
+        }
+    }
+
+    /**
+     * Called by a shard after it was read again (by update(), refresh() or
+     * its watcher), the shard may have users that were not there before
+     */
+    void shardUpdated() {
+        this.ids = this.collectIds();
+    }
+
+    private CSVParser shardFor(int id) {
+        return this.shards[shardOf(id, this.shards.length, this.split)];
+    }
+
+    @Override
+    public void update() throws IOException {
+        parallel(this.shards.length, i -> {
+            this.shards[i].update();
+            return null;
+        });
+    }
+
+    @Override
+    public boolean refresh() throws IOException {
+        // every shard that is read again rebuilds this.ids (see shardUpdated)
+        boolean changed = false;
+        for (CSVParser shard : this.shards) {
+            changed |= shard.refresh();
+        }
+        return changed;
+    }
+
+    @Override
+    public void startWatching() throws IOException {
+        for (CSVParser shard : this.shards) {
+            shard.startWatching();
+        }
+    }
+
+    @Override
+    public void stopWatching() {
+        for (CSVParser shard : this.shards) {
+            shard.stopWatching();
+        }
+    }
+
+    @Override
+    public void setJournaled(boolean journaled) throws IOException {
+        for (CSVParser shard : this.shards) {
+            shard.setJournaled(journaled);
+        }
+    }
+
+    @Override
+    public void setCompactEvery(int compactEvery) {
+        for (CSVParser shard : this.shards) {
+            shard.setCompactEvery(compactEvery);
+        }
+    }
+
+    @Override
+    public void setIndexed(boolean indexed) {
+        for (CSVParser shard : this.shards) {
+            shard.setIndexed(indexed);
+        }
+    }
+
+    @Override
+    public void setWriteBehind(long flushWindow) throws IOException {
+        for (CSVParser shard : this.shards) {
+            shard.setWriteBehind(flushWindow);
+        }
+    }
+
+    @Override
+    public void setWaitForFlush(boolean waitForFlush) {
+        for (CSVParser shard : this.shards) {
+            shard.setWaitForFlush(waitForFlush);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (CSVParser shard : this.shards) {
+            shard.flush();
+        }
+    }
+
+    @Override
+    public void awaitFlush() throws IOException {
+        for (CSVParser shard : this.shards) {
+            shard.awaitFlush();
+        }
+    }
+
+    @Override
+    public void commit(Line line) throws IOException {
+        this.shardFor(line.intId()).commit(line);
+    }
+
+    @Override
+    public void commitRemove(int id) throws IOException {
+        this.shardFor(id).commitRemove(id);
+    }
+
+    @Override
+    public Line getLine(int id) throws IOException {
+        return this.shardFor(id).getLine(id);
+    }
+
+    @Override
+    public void addLine(Line line) throws IOException {
+        this.shardFor(line.intId()).addLine(line);
+        this.ids.add(line.intId());
+    }
+
+    /**
+     * Change the id of a line of one of the shards, moving it to another
+     * shard if the new id belongs there
+     * @param line the line
+     * @param id the new id
+     * @throws IllegalArgumentException if the new id is taken
+     * @throws UncheckedIOException if the removal from the old shard could
+     * not be saved
+     */
+    @Override
+    void renameLine(Line line, int id) {
+        int before = line.intId();
+        CSVParser from = this.shardFor(before);
+        CSVParser to = this.shardFor(id);
+        if (!this.ids.add(id)) {
+            // taken, or outside the 6 digit range (then ask the shard)
+            if (this.ids.contains(id) || to.index.get(id) != null) {
+                throw new IllegalArgumentException("User ID already exists");
+            }
+        }
+        try {
+            if (from == to) {
+                from.moveLine(line, id);
+                from.saveRemoved(before);
+            } else {
+                from.removeLine(before);
+                from.commitRemove(before);
+                line.id(id);
+                // the caller commits the line, which saves it in its new shard
+                to.addLine(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (IllegalArgumentException e) {
+            this.ids.remove(id);
+            throw e;
+        }
+        this.ids.remove(before);
+    }
+
+    @Override
+    public Line removeLine(int id) throws IOException {
+        Line removed = this.shardFor(id).removeLine(id);
+        this.ids.remove(id);
+        return removed;
+    }
+
+    /**
+     * the lines of every shard, shard by shard
+     * @return the lines
+     */
+    @Override
+    public List<Line> lines() {
+        List<Line> lines = new ArrayList<>();
+        for (CSVParser shard : this.shards) {
+            lines.addAll(shard.lines());
+        }
+        return lines;
+    }
+
+    /**
+     * running totals over every shard, the shards all add to the same totals
+     * @return the totals
+     */
+    @Override
+    public synchronized Aggregates aggregates() {
+        if (this.aggregates == null) {
+            Aggregates aggregates = new Aggregates();
+            for (CSVParser shard : this.shards) {
+                shard.attach(aggregates);
+            }
+            this.aggregates = aggregates;
+        }
+        return this.aggregates;
+    }
+
+    /**
+     * name index over every shard, the shards all add to the same index
+     * @return the index
+     */
+    @Override
+    public synchronized NameIndex nameIndex() {
+        if (this.nameIndex == null) {
+            NameIndex nameIndex = new NameIndex();
+            for (CSVParser shard : this.shards) {
+                shard.attach(nameIndex);
+            }
+            this.nameIndex = nameIndex;
+        }
+        return this.nameIndex;
+    }
+
+    @Override
+    public void setLedger(Ledger ledger) {
+        for (CSVParser shard : this.shards) {
+            shard.setLedger(ledger);
+        }
+    }
+
+    @Override
+    public IdAllocator ids() {
+        return this.ids;
+    }
+
+    /**
+     * write every shard
+     * @throws IOException
+     */
+    @Override
+    public void write() throws IOException {
+        parallel(this.shards.length, i -> {
+            this.shards[i].write();
+            return null;
+        });
+    }
+
+    private interface ShardTask<T> {
+        T run(int shard) throws IOException;
+    }
+
+    private static <T> List<T> parallel(int shards, ShardTask<T> task) throws IOException {
+        if (shards == 1) {
+            List<T> results = new ArrayList<>();
+            results.add(task.run(0));
+            return results;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(shards, Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < shards; i++) {
+                int shard = i;
+                futures.add(pool.submit(() -> task.run(shard)));
+            }
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while working on the shards");
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
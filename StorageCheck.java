@@ -0,0 +1,205 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Checks the ways CSVParser saves changes without data.csv being rewritten
+ * every time: the journal (replaying it, replaying it again after a crash
+ * between writing the csv file and deleting the journal, a record torn by a
+ * crash while it was appended, compacting it). Every check works on its
+ * own made up data file, reads it back with a new parser and compares.
+ * Prints one line per check and exits with 1 if any failed. WriteBehindCheck
+ * does the same for write-behind.
+ * <br>
+ * Usage: java StorageCheck [directory]
+ */
+public class StorageCheck {
+    static final int ROWS = 100;
+
+    // number of checks that failed so far
+    static int failed = 0;
+
+    /**
+     * Something to check, returns null if it passed or what went wrong
+     */
+    interface Check {
+        String run(String file) throws Exception;
+    }
+
+    static void check(String name, String directory, Check check) {
+        File dir = new File(directory, "storage-check-" + name);
+        String file = dir.getPath() + File.separator + "data.csv";
+        String problem;
+        try {
+            dir.mkdirs();
+            Benchmark.generate(file, ROWS);
+            problem = check.run(file);
+        } catch (Exception e) {
+            problem = e.toString();
+        }
+        if (problem == null) {
+            System.out.printf("%-28s ok%n", name);
+        } else {
+            System.out.printf("%-28s FAILED: %s%n", name, problem);
+            failed++;
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * make the same changes every check makes: a deposit, a new user, a
+     * removed user and a PIN change
+     * @param parser the parser to change
+     * @throws IOException
+     */
+    static void change(CSVParser parser) throws IOException {
+        Line line = parser.getLine(100000);
+        line.setCentsOfChecking(line.centsOfChecking() + 12_345);
+        parser.commit(line);
+        Line added = new Line("999999,NEW,USER,true,1.00,false,-1.00,4321".split(","));
+        parser.addLine(added);
+        parser.commit(added);
+        parser.removeLine(100001);
+        parser.commitRemove(100001);
+        Line pin = parser.getLine(100002);
+        pin.setPin("9999");
+        parser.commit(pin);
+    }
+
+    /**
+     * compare a parser's lines with what they should be after change()
+     * @param expected the parser change() was called on
+     * @param file file to read back
+     * @return null if they are the same, otherwise what is different
+     * @throws IOException
+     */
+    static String compare(CSVParser expected, String file) throws IOException {
+        CSVParser actual = new CSVParser(file);
+        if (actual.lines().size() != ROWS) {
+            return "expected " + ROWS + " rows, read back " + actual.lines().size();
+        }
+        for (Line line : expected.lines()) {
+            String row = line.toCSV();
+            String read;
+            try {
+                read = actual.getLine(line.intId()).toCSV();
+            } catch (IOException e) {
+                return "row " + line.intId() + " is missing";
+            }
+            if (!row.equals(read)) {
+                return "expected " + row + ", read back " + read;
+            }
+        }
+        try {
+            actual.getLine(100001);
+            return "the removed row 100001 came back";
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static void main(String[] args) {
+        String directory = args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir");
+
+        check("journal replay", directory, file -> {
+            CSVParser parser = new CSVParser(file);
+            parser.setJournaled(true);
+            change(parser);
+            if (!new File(parser.journalFile()).exists()) {
+                return "nothing was journaled";
+            }
+            // data.csv itself was not written, the changes only come back
+            // from the journal
+            return compare(parser, file);
+        });
+
+        check("journal replay after crash", directory, file -> {
+            CSVParser parser = new CSVParser(file);
+            parser.setJournaled(true);
+            change(parser);
+            // keep the journal, compact, then put the journal back: that is
+            // what a crash after writing data.csv but before deleting the
+            // journal leaves behind, every record is replayed a second time
+            File journal = new File(parser.journalFile());
+            File saved = new File(file + ".saved");
+            Files.copy(journal.toPath(), saved.toPath());
+            parser.setJournaled(false);
+            if (journal.exists()) {
+                return "leaving journal mode did not compact the journal";
+            }
+            Files.move(saved.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return compare(parser, file);
+        });
+
+        check("journal torn record", directory, file -> {
+            CSVParser parser = new CSVParser(file);
+            parser.setJournaled(true);
+            change(parser);
+            // the program stopped halfway through appending a record
+            File journal = new File(parser.journalFile());
+            long size = journal.length();
+            try (FileWriter fw = new FileWriter(journal, true)) {
+                fw.write("U,100002,FIRST2,LA");
+            }
+            String problem = compare(parser, file);
+            if (problem == null && journal.length() != size) {
+                problem = "the torn record was not cut off";
+            }
+            return problem;
+        });
+
+        check("journal bad record", directory, file -> {
+            CSVParser parser = new CSVParser(file);
+            parser.setJournaled(true);
+            change(parser);
+            // a broken record with good ones after it is not a torn write
+            try (FileWriter fw = new FileWriter(parser.journalFile(), true)) {
+                fw.write("U,100002,FIRST2,LA\n");
+                fw.write("R,100003\n");
+            }
+            try {
+                new CSVParser(file);
+                return "the broken record was not reported";
+            } catch (IOException expected) {
+                return expected.getMessage().contains("line 5") ? null : expected.getMessage();
+            }
+        });
+
+        check("journal compaction", directory, file -> {
+            CSVParser parser = new CSVParser(file);
+            parser.setJournaled(true);
+            parser.setCompactEvery(3);
+            change(parser);
+            // 4 records with compactEvery 3: compacted once, one record left
+            if (parser.journalRecords != 1) {
+                return "expected 1 journal record after compacting, found " + parser.journalRecords;
+            }
+            return compare(parser, file);
+        });
+
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2023 Kevin Wang, Max Chu, Aryan Dhankhar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the license at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the license is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * license for the specific language governing permissions and limitations under
+ * the license.
+ * */
+// package se2;
+
+import java.io.*;
+
+/**
+ * Checks CSVParser's write-behind mode the same way StorageCheck checks the
+ * journal: flushing and reading back (with and without the journal), trying
+ * again after a flush failed, and turning write-behind off without waiting
+ * for the rest of the window. Prints one line per check and exits with 1 if
+ * any failed.
+ * <br>
+ * Usage: java WriteBehindCheck [directory]
+ */
+public class WriteBehindCheck {
+    public static void main(String[] args) {
+        String directory = args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir");
+
+        StorageCheck.check("write-behind flush", directory, file -> {
+            CSVParser parser = new CSVParser(file);
+            parser.setWriteBehind(20);
+            StorageCheck.change(parser);
+            parser.awaitFlush();
+            String problem = StorageCheck.compare(parser, file);
+            parser.setWriteBehind(0);
+            return problem;
+        });
+
+        StorageCheck.check("write-behind journal flush", directory, file -> {
+            CSVParser parser = new CSVParser(file);
+            parser.setJournaled(true);
+            parser.setWriteBehind(20);
+            StorageCheck.change(parser);
+            parser.awaitFlush();
+            String problem = StorageCheck.compare(parser, file);
+            parser.setWriteBehind(0);
+            return problem;
+        });
+
+        StorageCheck.check("write-behind retry", directory, file -> {
+            CSVParser parser = new CSVParser(file);
+            // a long window, so the background thread does not flush before
+            // flush() is called by hand
+            parser.setWriteBehind(60_000);
+            StorageCheck.change(parser);
+            // take the directory away so the flush can not write
+            File dir = new File(file).getParentFile();
+            File moved = new File(dir.getPath() + ".moved");
+            if (!dir.renameTo(moved)) {
+                return "could not move the directory away";
+            }
+            try {
+                parser.flush();
+                return "flush did not fail";
+            } catch (IOException expected) {
+                // the changes must still be waiting
+            } finally {
+                moved.renameTo(dir);
+            }
+            parser.flush();
+            parser.setWriteBehind(0);
+            return StorageCheck.compare(parser, file);
+        });
+
+        StorageCheck.check("write-behind off", directory, file -> {
+            CSVParser parser = new CSVParser(file);
+            parser.setWriteBehind(60_000);
+            StorageCheck.change(parser);
+            // turning it off saves the changes right away, without waiting
+            // for the background thread's window to end
+            long start = System.nanoTime();
+            parser.setWriteBehind(0);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            if (millis > 1000) {
+                return "turning write-behind off took " + millis + " ms";
+            }
+            return StorageCheck.compare(parser, file);
+        });
+
+        System.exit(StorageCheck.failed == 0 ? 0 : 1);
+    }
+}